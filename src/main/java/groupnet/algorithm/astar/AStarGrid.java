@@ -1,5 +1,7 @@
 package groupnet.algorithm.astar;
 
+import groupnet.util.CancellationToken;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -110,6 +112,21 @@ public class AStarGrid {
         return logic.getPath(grid, getNode(startX, startY), getNode(targetX, targetY));
     }
 
+    /**
+     * Same as {@link #getPath(int, int, int, int)} but the search
+     * is abandoned once the token is cancelled.
+     *
+     * @param startX start node x
+     * @param startY start node y
+     * @param targetX target node x
+     * @param targetY target node y
+     * @param token cancellation token checked on every expanded node
+     * @return the path
+     */
+    public final List<AStarNode> getPath(int startX, int startY, int targetX, int targetY, CancellationToken token) {
+        return logic.getPath(grid, getNode(startX, startY), getNode(targetX, targetY), token);
+    }
+
     /**
      * Returns a node at x, y. There is no bounds checking.
      *
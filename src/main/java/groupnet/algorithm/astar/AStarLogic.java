@@ -1,5 +1,7 @@
 package groupnet.algorithm.astar;
 
+import groupnet.util.CancellationToken;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -25,6 +27,21 @@ public class AStarLogic {
      * @return          path as list of nodes from start to target or empty list if no path found
      */
     public final List<AStarNode> getPath(AStarNode[][] grid, AStarNode start, AStarNode target, AStarNode... busyNodes) {
+        return getPath(grid, start, target, new CancellationToken(), busyNodes);
+    }
+
+    /**
+     * Since the equality check is based on references,
+     * start and target must be elements of the array.
+     *
+     * @param grid      the grid of nodes
+     * @param start     starting node
+     * @param target    target node
+     * @param token     cancellation token checked on every expanded node
+     * @param busyNodes busy "unwalkable" nodes
+     * @return          path as list of nodes from start to target or empty list if no path found
+     */
+    public final List<AStarNode> getPath(AStarNode[][] grid, AStarNode start, AStarNode target, CancellationToken token, AStarNode... busyNodes) {
         if (target.getState() == NodeState.NOT_WALKABLE)
             return Collections.emptyList();
 
@@ -44,6 +61,8 @@ public class AStarLogic {
         boolean found = false;
 
         while (!found && !closed.contains(target)) {
+            token.checkpoint();
+
             for (AStarNode neighbor : getValidNeighbors(current, grid, busyNodes)) {
                 if (neighbor == target) {
                     target.setParent(current);
@@ -0,0 +1,913 @@
+package groupnet.algorithm.voronoi;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * Fortune's algorithm, same as {@link Voronoi}, but sites, vertices, edges, half-edges and the event queue
+ * are kept in arenas of primitive arrays, which are reused by later calls.
+ * Once the arenas have grown to the largest input, building a diagram allocates nothing.
+ * Edges are written to a caller-provided array or buffer as {@link #EDGE_SIZE} values each:
+ * x1, y1, x2, y2 and the input indices of the two sites that the edge separates.
+ * Not thread-safe, use one builder per thread.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+public final class VoronoiBuilder {
+
+    /**
+     * Number of values written per edge.
+     */
+    public static final int EDGE_SIZE = 6;
+
+    private static final int LE = 0;
+    private static final int RE = 1;
+
+    private static final int NONE = -1;
+
+    /**
+     * Edges between sites closer than this are not written.
+     */
+    private final double minDistanceBetweenSites;
+
+    // points, sites in sorted order first, then vertices
+    private double[] px = new double[64];
+    private double[] py = new double[64];
+    private int[] siteNumber = new int[64];
+    private int numPoints;
+
+    private int numSites;
+    private int siteIndex;
+    private int bottomSite;
+    private int sqrtNumSites;
+    private double xmin, xmax, ymin, ymax, deltax, deltay;
+    private double borderMinX, borderMaxX, borderMinY, borderMaxY;
+
+    // edges, as lines a * x + b * y = c with end points and the two sites they bisect
+    private double[] edgeA = new double[64];
+    private double[] edgeB = new double[64];
+    private double[] edgeC = new double[64];
+    private int[] edgeEnd0 = new int[64];
+    private int[] edgeEnd1 = new int[64];
+    private int[] edgeSite0 = new int[64];
+    private int[] edgeSite1 = new int[64];
+    private int numEdges;
+
+    // half-edges, linked into the beach line and into the event queue
+    private int[] heEdge = new int[64];
+    private int[] hePm = new int[64];
+    private int[] heLeft = new int[64];
+    private int[] heRight = new int[64];
+    private int[] heNextEvent = new int[64];
+    private int[] heVertex = new int[64];
+    private double[] heYStar = new double[64];
+    private boolean[] heDeleted = new boolean[64];
+    private int numHalfEdges;
+
+    // event queue, each bucket is a dummy half-edge heading a sorted list
+    private int[] pqHash = new int[16];
+    private int pqHashSize;
+    private int pqCount;
+    private int pqMin;
+    private double pqMinX, pqMinY;
+
+    // beach line
+    private int[] elHash = new int[16];
+    private int elHashSize;
+    private int elLeftEnd, elRightEnd;
+
+    // output, either an array or a buffer
+    private double[] outArray;
+    private int outOffset;
+    private DoubleBuffer outBuffer;
+    private int numOutput;
+
+    public VoronoiBuilder(double minDistanceBetweenSites) {
+        this.minDistanceBetweenSites = minDistanceBetweenSites;
+    }
+
+    /**
+     * @return number of values that the edges of a diagram of count sites can take up
+     */
+    public static int maxValues(int count) {
+        // a diagram of n sites has at most 3n - 6 edges, edges without end points are written once per side
+        return 4 * count * EDGE_SIZE;
+    }
+
+    /**
+     * Writes edges into out, starting at offset.
+     *
+     * @param out must have room for {@link #maxValues(int)} values after offset
+     * @return number of edges written
+     */
+    public int generate(double[] xs, double[] ys, int count,
+                        double minX, double maxX, double minY, double maxY,
+                        double[] out, int offset) {
+        if (out.length - offset < maxValues(count))
+            throw new IllegalArgumentException("Output has room for " + (out.length - offset) + " values, needs " + maxValues(count));
+
+        outArray = out;
+        outOffset = offset;
+        outBuffer = null;
+
+        return run(xs, ys, count, minX, maxX, minY, maxY);
+    }
+
+    /**
+     * Writes edges into out from its position, advancing the position.
+     *
+     * @param out must have {@link #maxValues(int)} values remaining
+     * @return number of edges written
+     */
+    public int generate(double[] xs, double[] ys, int count,
+                        double minX, double maxX, double minY, double maxY,
+                        DoubleBuffer out) {
+        if (out.remaining() < maxValues(count))
+            throw new IllegalArgumentException("Output has room for " + out.remaining() + " values, needs " + maxValues(count));
+
+        outArray = null;
+        outBuffer = out;
+
+        return run(xs, ys, count, minX, maxX, minY, maxY);
+    }
+
+    private int run(double[] xs, double[] ys, int count, double minX, double maxX, double minY, double maxY) {
+        numOutput = 0;
+
+        try {
+            if (count > 0) {
+                setBorder(minX, maxX, minY, maxY);
+                loadSites(xs, ys, count);
+                build();
+            }
+
+            return numOutput;
+        } finally {
+            outArray = null;
+            outBuffer = null;
+        }
+    }
+
+    private void setBorder(double minX, double maxX, double minY, double maxY) {
+        borderMinX = Math.min(minX, maxX);
+        borderMaxX = Math.max(minX, maxX);
+        borderMinY = Math.min(minY, maxY);
+        borderMaxY = Math.max(minY, maxY);
+    }
+
+    private void loadSites(double[] xs, double[] ys, int count) {
+        numPoints = 0;
+        numEdges = 0;
+        numHalfEdges = 0;
+
+        numSites = count;
+        sqrtNumSites = (int) Math.sqrt(count + 4.0);
+
+        ensurePoints(count);
+
+        xmin = xmax = xs[0];
+        ymin = ymax = ys[0];
+
+        for (int i = 0; i < count; i++) {
+            px[i] = xs[i];
+            py[i] = ys[i];
+            siteNumber[i] = i;
+
+            xmin = Math.min(xmin, xs[i]);
+            xmax = Math.max(xmax, xs[i]);
+            ymin = Math.min(ymin, ys[i]);
+            ymax = Math.max(ymax, ys[i]);
+        }
+
+        numPoints = count;
+
+        sortSites();
+
+        deltax = xmax - xmin;
+        deltay = ymax - ymin;
+    }
+
+    /**
+     * Heap sort of sites by y, then x, in place.
+     * Equal sites keep their input order.
+     */
+    private void sortSites() {
+        int n = numSites;
+
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(i, n);
+        }
+
+        for (int end = n - 1; end > 0; end--) {
+            swapSites(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    private void siftDown(int i, int n) {
+        while (true) {
+            int child = 2 * i + 1;
+
+            if (child >= n)
+                return;
+
+            if (child + 1 < n && compareSites(child + 1, child) > 0)
+                child++;
+
+            if (compareSites(child, i) <= 0)
+                return;
+
+            swapSites(i, child);
+            i = child;
+        }
+    }
+
+    private int compareSites(int i, int j) {
+        if (py[i] != py[j])
+            return py[i] < py[j] ? -1 : 1;
+
+        if (px[i] != px[j])
+            return px[i] < px[j] ? -1 : 1;
+
+        // same order of equal sites as a stable sort
+        return Integer.compare(siteNumber[i], siteNumber[j]);
+    }
+
+    private void swapSites(int i, int j) {
+        double x = px[i];
+        px[i] = px[j];
+        px[j] = x;
+
+        double y = py[i];
+        py[i] = py[j];
+        py[j] = y;
+
+        int number = siteNumber[i];
+        siteNumber[i] = siteNumber[j];
+        siteNumber[j] = number;
+    }
+
+    private int nextSite() {
+        return siteIndex < numSites ? siteIndex++ : NONE;
+    }
+
+    private int newPoint(double x, double y) {
+        ensurePoints(numPoints + 1);
+
+        px[numPoints] = x;
+        py[numPoints] = y;
+        siteNumber[numPoints] = NONE;
+
+        return numPoints++;
+    }
+
+    private int bisect(int s1, int s2) {
+        ensureEdges(numEdges + 1);
+
+        int e = numEdges++;
+
+        edgeSite0[e] = s1;
+        edgeSite1[e] = s2;
+
+        // no end points yet, the bisector goes to infinity
+        edgeEnd0[e] = NONE;
+        edgeEnd1[e] = NONE;
+
+        double dx = px[s2] - px[s1];
+        double dy = py[s2] - py[s1];
+
+        double c = px[s1] * dx + py[s1] * dy + (dx * dx + dy * dy) * 0.5;
+
+        if (Math.abs(dx) > Math.abs(dy)) {
+            edgeA[e] = 1.0;
+            edgeB[e] = dy / dx;
+            edgeC[e] = c / dx;
+        } else {
+            edgeB[e] = 1.0;
+            edgeA[e] = dx / dy;
+            edgeC[e] = c / dy;
+        }
+
+        return e;
+    }
+
+    private int newHalfEdge(int edge, int pm) {
+        ensureHalfEdges(numHalfEdges + 1);
+
+        int he = numHalfEdges++;
+
+        heEdge[he] = edge;
+        hePm[he] = pm;
+        heLeft[he] = NONE;
+        heRight[he] = NONE;
+        heNextEvent[he] = NONE;
+        heVertex[he] = NONE;
+        heYStar[he] = 0;
+        heDeleted[he] = false;
+
+        return he;
+    }
+
+    // event queue
+
+    private void pqInitialize() {
+        pqCount = 0;
+        pqMin = 0;
+        pqHashSize = 4 * sqrtNumSites;
+
+        if (pqHash.length < pqHashSize)
+            pqHash = new int[pqHashSize];
+
+        for (int i = 0; i < pqHashSize; i++) {
+            pqHash[i] = newHalfEdge(NONE, 0);
+        }
+    }
+
+    private int pqBucket(int he) {
+        int bucket = (int) ((heYStar[he] - ymin) / deltay * pqHashSize);
+
+        if (bucket < 0)
+            bucket = 0;
+
+        if (bucket >= pqHashSize)
+            bucket = pqHashSize - 1;
+
+        if (bucket < pqMin)
+            pqMin = bucket;
+
+        return bucket;
+    }
+
+    private void pqInsert(int he, int vertex, double offset) {
+        heVertex[he] = vertex;
+        heYStar[he] = py[vertex] + offset;
+
+        int last = pqHash[pqBucket(he)];
+        int next;
+
+        while ((next = heNextEvent[last]) != NONE
+                && (heYStar[he] > heYStar[next] || (heYStar[he] == heYStar[next] && px[vertex] > px[heVertex[next]]))) {
+            last = next;
+        }
+
+        heNextEvent[he] = heNextEvent[last];
+        heNextEvent[last] = he;
+        pqCount++;
+    }
+
+    private void pqDelete(int he) {
+        if (heVertex[he] == NONE)
+            return;
+
+        int last = pqHash[pqBucket(he)];
+
+        while (heNextEvent[last] != he) {
+            last = heNextEvent[last];
+        }
+
+        heNextEvent[last] = heNextEvent[he];
+        pqCount--;
+        heVertex[he] = NONE;
+    }
+
+    private boolean pqEmpty() {
+        return pqCount == 0;
+    }
+
+    /**
+     * Sets {@link #pqMinX} and {@link #pqMinY} to the next vertex event.
+     */
+    private void pqFindMin() {
+        while (heNextEvent[pqHash[pqMin]] == NONE) {
+            pqMin++;
+        }
+
+        int he = heNextEvent[pqHash[pqMin]];
+
+        pqMinX = px[heVertex[he]];
+        pqMinY = heYStar[he];
+    }
+
+    private int pqExtractMin() {
+        int head = pqHash[pqMin];
+        int he = heNextEvent[head];
+
+        heNextEvent[head] = heNextEvent[he];
+        pqCount--;
+
+        return he;
+    }
+
+    // beach line
+
+    private void elInitialize() {
+        elHashSize = 2 * sqrtNumSites;
+
+        if (elHash.length < elHashSize)
+            elHash = new int[elHashSize];
+
+        Arrays.fill(elHash, 0, elHashSize, NONE);
+
+        elLeftEnd = newHalfEdge(NONE, 0);
+        elRightEnd = newHalfEdge(NONE, 0);
+
+        heRight[elLeftEnd] = elRightEnd;
+        heLeft[elRightEnd] = elLeftEnd;
+
+        elHash[0] = elLeftEnd;
+        elHash[elHashSize - 1] = elRightEnd;
+    }
+
+    private int leftSite(int he) {
+        if (heEdge[he] == NONE)
+            return bottomSite;
+
+        return hePm[he] == LE ? edgeSite0[heEdge[he]] : edgeSite1[heEdge[he]];
+    }
+
+    private int rightSite(int he) {
+        if (heEdge[he] == NONE)
+            return bottomSite;
+
+        return hePm[he] == LE ? edgeSite1[heEdge[he]] : edgeSite0[heEdge[he]];
+    }
+
+    private void elInsert(int left, int he) {
+        heLeft[he] = left;
+        heRight[he] = heRight[left];
+        heLeft[heRight[left]] = he;
+        heRight[left] = he;
+    }
+
+    /**
+     * Half-edge stays in the arena, since the hash table may still point to it.
+     */
+    private void elDelete(int he) {
+        heRight[heLeft[he]] = heRight[he];
+        heLeft[heRight[he]] = heLeft[he];
+        heDeleted[he] = true;
+    }
+
+    private int elGetHash(int bucket) {
+        if (bucket < 0 || bucket >= elHashSize)
+            return NONE;
+
+        int he = elHash[bucket];
+
+        if (he == NONE || !heDeleted[he])
+            return he;
+
+        // hash table points to a deleted half-edge
+        elHash[bucket] = NONE;
+        return NONE;
+    }
+
+    /**
+     * @return half-edge of the beach line just to the left of point (x, y)
+     */
+    private int elLeftBound(double x, double y) {
+        int bucket = (int) ((x - xmin) / deltax * elHashSize);
+
+        if (bucket < 0)
+            bucket = 0;
+
+        if (bucket >= elHashSize)
+            bucket = elHashSize - 1;
+
+        int he = elGetHash(bucket);
+
+        // search backwards and forwards for the closest entry
+        if (he == NONE) {
+            for (int i = 1; i < elHashSize; i++) {
+                if ((he = elGetHash(bucket - i)) != NONE)
+                    break;
+
+                if ((he = elGetHash(bucket + i)) != NONE)
+                    break;
+            }
+        }
+
+        // then walk the beach line
+        if (he == elLeftEnd || (he != elRightEnd && isRightOf(he, x, y))) {
+            do {
+                he = heRight[he];
+            } while (he != elRightEnd && isRightOf(he, x, y));
+
+            he = heLeft[he];
+        } else {
+            do {
+                he = heLeft[he];
+            } while (he != elLeftEnd && !isRightOf(he, x, y));
+        }
+
+        if (bucket > 0 && bucket < elHashSize - 1)
+            elHash[bucket] = he;
+
+        return he;
+    }
+
+    /**
+     * @return true if point (x, y) is to the right of half-edge he
+     */
+    private boolean isRightOf(int he, double x, double y) {
+        int e = heEdge[he];
+        int top = edgeSite1[e];
+
+        boolean rightOfSite = x > px[top];
+
+        if (rightOfSite && hePm[he] == LE)
+            return true;
+
+        if (!rightOfSite && hePm[he] == RE)
+            return false;
+
+        double a = edgeA[e];
+        double b = edgeB[e];
+        double c = edgeC[e];
+
+        boolean above;
+
+        if (a == 1.0) {
+            double dyp = y - py[top];
+            double dxp = x - px[top];
+
+            boolean fast = false;
+
+            if ((!rightOfSite && b < 0.0) || (rightOfSite && b >= 0.0)) {
+                above = dyp >= b * dxp;
+                fast = above;
+            } else {
+                above = x + y * b > c;
+
+                if (b < 0.0)
+                    above = !above;
+
+                if (!above)
+                    fast = true;
+            }
+
+            if (!fast) {
+                double dxs = px[top] - px[edgeSite0[e]];
+
+                above = b * (dxp * dxp - dyp * dyp) < dxs * dyp * (1.0 + 2.0 * dxp / dxs + b * b);
+
+                if (b < 0.0)
+                    above = !above;
+            }
+        } else {
+            double yl = c - a * x;
+            double t1 = y - yl;
+            double t2 = x - px[top];
+            double t3 = yl - py[top];
+
+            above = t1 * t1 > t2 * t2 + t3 * t3;
+        }
+
+        return hePm[he] == LE ? above : !above;
+    }
+
+    /**
+     * @return new vertex where the bisectors of he1 and he2 meet, or NONE if they do not
+     */
+    private int intersect(int he1, int he2) {
+        int e1 = heEdge[he1];
+        int e2 = heEdge[he2];
+
+        if (e1 == NONE || e2 == NONE)
+            return NONE;
+
+        // both bisect the same parent
+        if (edgeSite1[e1] == edgeSite1[e2])
+            return NONE;
+
+        double d = edgeA[e1] * edgeB[e2] - edgeB[e1] * edgeA[e2];
+
+        if (-1.0e-10 < d && d < 1.0e-10)
+            return NONE;
+
+        double xint = (edgeC[e1] * edgeB[e2] - edgeC[e2] * edgeB[e1]) / d;
+        double yint = (edgeC[e2] * edgeA[e1] - edgeC[e1] * edgeA[e2]) / d;
+
+        int top1 = edgeSite1[e1];
+        int top2 = edgeSite1[e2];
+
+        int he;
+        int e;
+
+        if (py[top1] < py[top2] || (py[top1] == py[top2] && px[top1] < px[top2])) {
+            he = he1;
+            e = e1;
+        } else {
+            he = he2;
+            e = e2;
+        }
+
+        boolean rightOfSite = xint >= px[edgeSite1[e]];
+
+        if ((rightOfSite && hePm[he] == LE) || (!rightOfSite && hePm[he] == RE))
+            return NONE;
+
+        return newPoint(xint, yint);
+    }
+
+    private double distance(int p, int q) {
+        double dx = px[p] - px[q];
+        double dy = py[p] - py[q];
+
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private void setEndPoint(int e, int lr, int vertex) {
+        if (lr == LE)
+            edgeEnd0[e] = vertex;
+        else
+            edgeEnd1[e] = vertex;
+
+        if ((lr == LE ? edgeEnd1[e] : edgeEnd0[e]) == NONE)
+            return;
+
+        clipLine(e);
+    }
+
+    private void build() {
+        pqInitialize();
+        elInitialize();
+        siteIndex = 0;
+
+        bottomSite = nextSite();
+        int newSite = nextSite();
+
+        while (true) {
+            if (!pqEmpty())
+                pqFindMin();
+
+            if (newSite != NONE
+                    && (pqEmpty() || py[newSite] < pqMinY || (py[newSite] == pqMinY && px[newSite] < pqMinX))) {
+
+                // site event
+                int lbnd = elLeftBound(px[newSite], py[newSite]);
+                int rbnd = heRight[lbnd];
+                int bot = rightSite(lbnd);
+
+                int e = bisect(bot, newSite);
+
+                int bisector = newHalfEdge(e, LE);
+                elInsert(lbnd, bisector);
+
+                int p = intersect(lbnd, bisector);
+
+                if (p != NONE) {
+                    pqDelete(lbnd);
+                    pqInsert(lbnd, p, distance(p, newSite));
+                }
+
+                lbnd = bisector;
+
+                bisector = newHalfEdge(e, RE);
+                elInsert(lbnd, bisector);
+
+                p = intersect(bisector, rbnd);
+
+                if (p != NONE) {
+                    pqInsert(bisector, p, distance(p, newSite));
+                }
+
+                newSite = nextSite();
+
+            } else if (!pqEmpty()) {
+
+                // vertex event
+                int lbnd = pqExtractMin();
+                int llbnd = heLeft[lbnd];
+                int rbnd = heRight[lbnd];
+                int rrbnd = heRight[rbnd];
+                int bot = leftSite(lbnd);
+                int top = rightSite(rbnd);
+
+                int v = heVertex[lbnd];
+
+                setEndPoint(heEdge[lbnd], hePm[lbnd], v);
+                setEndPoint(heEdge[rbnd], hePm[rbnd], v);
+
+                elDelete(lbnd);
+                pqDelete(rbnd);
+                elDelete(rbnd);
+
+                int pm = LE;
+
+                if (py[bot] > py[top]) {
+                    int temp = bot;
+                    bot = top;
+                    top = temp;
+                    pm = RE;
+                }
+
+                int e = bisect(bot, top);
+
+                int bisector = newHalfEdge(e, pm);
+                elInsert(llbnd, bisector);
+
+                setEndPoint(e, RE - pm, v);
+
+                int p = intersect(llbnd, bisector);
+
+                if (p != NONE) {
+                    pqDelete(llbnd);
+                    pqInsert(llbnd, p, distance(p, bot));
+                }
+
+                p = intersect(bisector, rrbnd);
+
+                if (p != NONE) {
+                    pqInsert(bisector, p, distance(p, bot));
+                }
+            } else {
+                break;
+            }
+        }
+
+        for (int he = heRight[elLeftEnd]; he != elRightEnd; he = heRight[he]) {
+            clipLine(heEdge[he]);
+        }
+    }
+
+    /**
+     * Clips edge e to the border and writes it.
+     */
+    private void clipLine(int e) {
+        int site0 = edgeSite0[e];
+        int site1 = edgeSite1[e];
+
+        // sites too close to each other
+        if (distance(site0, site1) < minDistanceBetweenSites)
+            return;
+
+        double a = edgeA[e];
+        double b = edgeB[e];
+        double c = edgeC[e];
+
+        int s1;
+        int s2;
+
+        if (a == 1.0 && b >= 0.0) {
+            s1 = edgeEnd1[e];
+            s2 = edgeEnd0[e];
+        } else {
+            s1 = edgeEnd0[e];
+            s2 = edgeEnd1[e];
+        }
+
+        double x1, y1, x2, y2;
+
+        if (a == 1.0) {
+            y1 = borderMinY;
+
+            if (s1 != NONE && py[s1] > borderMinY)
+                y1 = py[s1];
+
+            if (y1 > borderMaxY)
+                y1 = borderMaxY;
+
+            x1 = c - b * y1;
+
+            y2 = borderMaxY;
+
+            if (s2 != NONE && py[s2] < borderMaxY)
+                y2 = py[s2];
+
+            if (y2 < borderMinY)
+                y2 = borderMinY;
+
+            x2 = c - b * y2;
+
+            if ((x1 > borderMaxX && x2 > borderMaxX) || (x1 < borderMinX && x2 < borderMinX))
+                return;
+
+            if (x1 > borderMaxX) {
+                x1 = borderMaxX;
+                y1 = (c - x1) / b;
+            }
+
+            if (x1 < borderMinX) {
+                x1 = borderMinX;
+                y1 = (c - x1) / b;
+            }
+
+            if (x2 > borderMaxX) {
+                x2 = borderMaxX;
+                y2 = (c - x2) / b;
+            }
+
+            if (x2 < borderMinX) {
+                x2 = borderMinX;
+                y2 = (c - x2) / b;
+            }
+        } else {
+            x1 = borderMinX;
+
+            if (s1 != NONE && px[s1] > borderMinX)
+                x1 = px[s1];
+
+            if (x1 > borderMaxX)
+                x1 = borderMaxX;
+
+            y1 = c - a * x1;
+
+            x2 = borderMaxX;
+
+            if (s2 != NONE && px[s2] < borderMaxX)
+                x2 = px[s2];
+
+            if (x2 < borderMinX)
+                x2 = borderMinX;
+
+            y2 = c - a * x2;
+
+            if ((y1 > borderMaxY && y2 > borderMaxY) || (y1 < borderMinY && y2 < borderMinY))
+                return;
+
+            if (y1 > borderMaxY) {
+                y1 = borderMaxY;
+                x1 = (c - y1) / a;
+            }
+
+            if (y1 < borderMinY) {
+                y1 = borderMinY;
+                x1 = (c - y1) / a;
+            }
+
+            if (y2 > borderMaxY) {
+                y2 = borderMaxY;
+                x2 = (c - y2) / a;
+            }
+
+            if (y2 < borderMinY) {
+                y2 = borderMinY;
+                x2 = (c - y2) / a;
+            }
+        }
+
+        writeEdge(x1, y1, x2, y2, siteNumber[site0], siteNumber[site1]);
+    }
+
+    private void writeEdge(double x1, double y1, double x2, double y2, int site1, int site2) {
+        if (outArray != null) {
+            int i = outOffset + numOutput * EDGE_SIZE;
+
+            outArray[i] = x1;
+            outArray[i + 1] = y1;
+            outArray[i + 2] = x2;
+            outArray[i + 3] = y2;
+            outArray[i + 4] = site1;
+            outArray[i + 5] = site2;
+        } else {
+            outBuffer.put(x1).put(y1).put(x2).put(y2).put(site1).put(site2);
+        }
+
+        numOutput++;
+    }
+
+    // arenas
+
+    private void ensurePoints(int size) {
+        if (size <= px.length)
+            return;
+
+        int capacity = Math.max(size, px.length * 2);
+
+        px = Arrays.copyOf(px, capacity);
+        py = Arrays.copyOf(py, capacity);
+        siteNumber = Arrays.copyOf(siteNumber, capacity);
+    }
+
+    private void ensureEdges(int size) {
+        if (size <= edgeA.length)
+            return;
+
+        int capacity = Math.max(size, edgeA.length * 2);
+
+        edgeA = Arrays.copyOf(edgeA, capacity);
+        edgeB = Arrays.copyOf(edgeB, capacity);
+        edgeC = Arrays.copyOf(edgeC, capacity);
+        edgeEnd0 = Arrays.copyOf(edgeEnd0, capacity);
+        edgeEnd1 = Arrays.copyOf(edgeEnd1, capacity);
+        edgeSite0 = Arrays.copyOf(edgeSite0, capacity);
+        edgeSite1 = Arrays.copyOf(edgeSite1, capacity);
+    }
+
+    private void ensureHalfEdges(int size) {
+        if (size <= heEdge.length)
+            return;
+
+        int capacity = Math.max(size, heEdge.length * 2);
+
+        heEdge = Arrays.copyOf(heEdge, capacity);
+        hePm = Arrays.copyOf(hePm, capacity);
+        heLeft = Arrays.copyOf(heLeft, capacity);
+        heRight = Arrays.copyOf(heRight, capacity);
+        heNextEvent = Arrays.copyOf(heNextEvent, capacity);
+        heVertex = Arrays.copyOf(heVertex, capacity);
+        heYStar = Arrays.copyOf(heYStar, capacity);
+        heDeleted = Arrays.copyOf(heDeleted, capacity);
+    }
+}
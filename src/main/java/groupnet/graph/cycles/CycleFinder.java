@@ -1,12 +1,14 @@
 package groupnet.graph.cycles;
 
 import groupnet.euler.dual.*;
+import groupnet.util.CancellationToken;
 import org.jgrapht.UndirectedGraph;
 import org.jgrapht.graph.SimpleGraph;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -19,8 +21,20 @@ public class CycleFinder<V, E> {
     private UndirectedGraph<V, E> graph;
     private List<V> vertexList = new ArrayList<>();
 
+    private CancellationToken token;
+
+    private int maxCycles = Integer.MAX_VALUE;
+
     public CycleFinder(Class<E> type) {
+        this(type, new CancellationToken());
+    }
+
+    /**
+     * @param token checked while enumerating cycles, so that the search can be abandoned
+     */
+    public CycleFinder(Class<E> type, CancellationToken token) {
         graph = new SimpleGraph<>(type);
+        this.token = token;
     }
 
     public void addVertex(V vertex) {
@@ -36,13 +50,56 @@ public class CycleFinder<V, E> {
         return graph;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Limits enumeration to the first cycles found, which is not exhaustive.
+     *
+     * @param maxCycles maximum number of elementary cycles to enumerate
+     */
+    public void setMaxCycles(int maxCycles) {
+        this.maxCycles = maxCycles;
+    }
+
     public List<MEDCycle> computeCycles() {
-        List<MEDCycle> graphCycles = new ArrayList<>();
+        return toMEDCycles(getAllCycles());
+    }
 
-        List<List<V> > cycles = getAllCycles();
+    /**
+     * Enumerates cycles in batches of the given size, as a single search that stops
+     * as soon as a batch has what the caller looks for.
+     * Each batch is prepared as in computeCycles(), so it is sorted by length.
+     *
+     * @param batchSize number of elementary cycles in each batch, before preparing it
+     * @param search called with each batch, returns null if the search should continue
+     * @return the first result of search that is not null, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T searchCycles(int batchSize, Function<List<MEDCycle>, T> search) {
+        List<T> result = new ArrayList<>();
+
+        ElementaryCyclesSearch ecs = newSearch();
+        ecs.setBatches(batchSize, batch -> {
+            T value = search.apply(toMEDCycles(prepare((List<List<V>>) batch)));
+
+            if (value != null)
+                result.add(value);
+
+            return value != null;
+        });
+
+        List<List<V>> lastBatch = ecs.getElementaryCycles();
+
+        if (!result.isEmpty())
+            return result.get(0);
+
+        return search.apply(toMEDCycles(prepare(lastBatch)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<MEDCycle> toMEDCycles(List<List<V>> cycles) {
+        List<MEDCycle> graphCycles = new ArrayList<>();
 
         for (List<V> cycle : cycles) {
+            token.checkpoint();
 
             List<MEDVertex> vertices = (List<MEDVertex>) cycle;
 
@@ -78,6 +135,7 @@ public class CycleFinder<V, E> {
         List<List<V> > cycles = getAllCycles();
 
         for (List<V> cycle : cycles) {
+            token.checkpoint();
 
             List<Vertex> vertices = (List<Vertex>) cycle;
             List<E> edges = new ArrayList<>();
@@ -99,14 +157,25 @@ public class CycleFinder<V, E> {
         return graphCycles;
     }
 
-    @SuppressWarnings("unchecked")
     private List<List<V>> getAllCycles() {
+        return prepare(newSearch().getElementaryCycles());
+    }
+
+    @SuppressWarnings("unchecked")
+    private ElementaryCyclesSearch newSearch() {
         boolean adjMatrix[][] = buildAdjacencyMatrix();
 
         V[] vertexArray = (V[]) vertexList.toArray();
-        ElementaryCyclesSearch ecs = new ElementaryCyclesSearch(adjMatrix, vertexArray);
+        ElementaryCyclesSearch ecs = new ElementaryCyclesSearch(adjMatrix, vertexArray, token);
+        ecs.setMaxCycles(maxCycles);
 
-        List<List<V>> cycles = ecs.getElementaryCycles();
+        return ecs;
+    }
+
+    /**
+     * Drops cycles of 2 vertices, i.e. single edges, and cycles repeated in the other direction.
+     */
+    private List<List<V>> prepare(List<List<V>> cycles) {
         cycles.removeIf(cycle -> cycle.size() == 2);
 
         return removeRepeatedLists(cycles);
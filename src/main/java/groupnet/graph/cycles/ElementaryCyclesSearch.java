@@ -1,7 +1,10 @@
 package groupnet.graph.cycles;
 
+import groupnet.util.CancellationToken;
+
 import java.util.List;
 import java.util.Vector;
+import java.util.function.Predicate;
 
 
 /**
@@ -46,6 +49,23 @@ public class ElementaryCyclesSearch {
 
 	private StrongConnectedComponents sccs;
 
+	/** Checked on every step of the search, since the number of cycles can be exponential */
+	private CancellationToken token;
+
+	/** The search stops once this many cycles are found */
+	private int maxCycles = Integer.MAX_VALUE;
+
+	/** Number of cycles found so far, including those already passed to onBatch */
+	private int numFound = 0;
+
+	/** Cycles are passed on in batches of this size, rather than collected */
+	private int batchSize = Integer.MAX_VALUE;
+
+	/** Called with each full batch of cycles, the search stops once it returns true */
+	private Predicate<List> onBatch = null;
+
+	private boolean isStopped = false;
+
 	/**
 	 * Constructor.
 	 *
@@ -55,7 +75,19 @@ public class ElementaryCyclesSearch {
 	 * graph-representation
 	 */
 	public ElementaryCyclesSearch(boolean[][] matrix, Object[] graphNodes) {
+		this(matrix, graphNodes, new CancellationToken());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param matrix adjacency-matrix of the graph
+	 * @param graphNodes array of the graphnodes of the graph
+	 * @param token cancellation token checked during the search
+	 */
+	public ElementaryCyclesSearch(boolean[][] matrix, Object[] graphNodes, CancellationToken token) {
 		this.graphNodes = graphNodes;
+		this.token = token;
 
 		/* Adjacency-list of graph */
         int[][] adjList = AdjacencyList.getAdjacencyList(matrix);
@@ -65,6 +97,28 @@ public class ElementaryCyclesSearch {
         sccs = new StrongConnectedComponents(adjList);
 	}
 
+	/**
+	 * Limits the search to the first cycles found.
+	 *
+	 * @param maxCycles maximum number of cycles to find
+	 */
+	public void setMaxCycles(int maxCycles) {
+		this.maxCycles = maxCycles;
+	}
+
+	/**
+	 * Passes cycles to onBatch as soon as batchSize of them are found, so that
+	 * the caller can stop the search early without starting it over for more cycles.
+	 * Only the cycles of the last, incomplete batch are then returned by getElementaryCycles().
+	 *
+	 * @param batchSize number of cycles in each batch
+	 * @param onBatch called with each batch, returns true to stop the search
+	 */
+	public void setBatches(int batchSize, Predicate<List> onBatch) {
+		this.batchSize = batchSize;
+		this.onBatch = onBatch;
+	}
+
 	/**
 	 * Returns List::List::Object with the Lists of nodes of all elementary
 	 * cycles in the graph.
@@ -75,7 +129,7 @@ public class ElementaryCyclesSearch {
 
 		int s = 0;
 
-		while (true) {
+		while (!isStopped) {
 			SCCResult sccResult = sccs.getAdjacencyList(s);
 
 			if (sccResult != null && sccResult.getAdjList() != null) {
@@ -109,12 +163,14 @@ public class ElementaryCyclesSearch {
 	 * @return true, if cycle found; false otherwise
 	 */
 	private boolean findCycles(int v, int s, Vector[] adjList) {
+		token.checkpoint();
+
 		boolean found = false;
 
 		stack.add(new Integer(v));
 		blocked[v] = true;
 
-		for (int i = 0; i < adjList[v].size(); i++) {
+		for (int i = 0; i < adjList[v].size() && !isStopped; i++) {
 			int w = ((Integer) adjList[v].get(i)).intValue();
 
 			// found cycle
@@ -126,6 +182,14 @@ public class ElementaryCyclesSearch {
 				}
 
 				cycles.add(cycle);
+				numFound++;
+
+				if (numFound >= maxCycles) {
+					isStopped = true;
+				} else if (onBatch != null && cycles.size() >= batchSize) {
+					isStopped = onBatch.test(cycles);
+					cycles = new Vector();
+				}
 
 				found = true;
 			} else if (!blocked[w]) {
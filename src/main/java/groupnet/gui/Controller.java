@@ -1,26 +1,39 @@
 package groupnet.gui;
 
 import groupnet.GroupNetApp;
+import groupnet.diagram.PreviewDiagramCreator;
 import groupnet.euler.Description;
+import groupnet.euler.EulerDiagram;
 import groupnet.gn.GNDescription;
+import groupnet.gn.GNDiagram;
 import groupnet.ui.EulerDiagramVisTask;
 import groupnet.ui.GNDiagramVisTask;
 import groupnet.ui.Renderer;
 import groupnet.ui.VisTask;
+import groupnet.util.AnytimeToken;
+import groupnet.util.CancellationToken;
 import groupnet.util.Examples;
 import groupnet.util.Log;
+import groupnet.util.ParallelKt;
+import javafx.animation.PauseTransition;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.control.*;
+import javafx.util.Duration;
 
 /**
  * @author Almas Baimagambetov (AlmasB) (almaslvl@gmail.com)
  */
 public class Controller {
 
+    /**
+     * How long typing has to pause before the input is previewed and drawn.
+     */
+    private static final double INPUT_DELAY_MILLIS = 300;
+
     private SettingsController settings;
 
     @FXML
@@ -47,6 +60,13 @@ public class Controller {
 
     private VisualizationService visService = new VisualizationService();
 
+    /**
+     * True while input fields are set programmatically, so that it is not treated as typing.
+     */
+    private boolean isUpdatingInput = false;
+
+    private PauseTransition inputDelay = new PauseTransition(Duration.millis(INPUT_DELAY_MILLIS));
+
     public void initialize() {
         initSettingsDialog();
 
@@ -74,6 +94,7 @@ public class Controller {
 
             // set global settings hack
             GroupNetApp.getInstance().setSettings(settings);
+            ParallelKt.setDrawingSettings(settings);
 
             dialogSettings.getDialogPane().setContent(root);
         } catch (Exception e) {
@@ -101,6 +122,58 @@ public class Controller {
         fieldSNAP.setOnAction(e -> {
 
         });
+
+        // once typing pauses, show a quick preview and replace it with the full diagram once it is ready
+        inputDelay.setOnFinished(e -> onInputTyped());
+
+        fieldInput.textProperty().addListener((o, oldText, newText) -> onInputChanged());
+        fieldEdges.textProperty().addListener((o, oldText, newText) -> onInputChanged());
+    }
+
+    private void onInputChanged() {
+        if (isUpdatingInput)
+            return;
+
+        inputDelay.playFromStart();
+    }
+
+    private void onInputTyped() {
+        try {
+            String informalDescription = fieldInput.getText().trim();
+            String edgeDescription = fieldEdges.getText().trim();
+
+            if (informalDescription.isEmpty())
+                return;
+
+            VisTask<?> task;
+
+            // parse and build the preview first, so that invalid input does not clear the last diagram
+            if (edgeDescription.isEmpty()) {
+                Description description = Description.from(informalDescription);
+
+                EulerDiagram preview = new PreviewDiagramCreator().drawEulerDiagram(description);
+
+                renderer.clear();
+                renderer.renderAsImage(preview);
+
+                task = new EulerDiagramVisTask(description, renderer, newToken());
+            } else {
+                GNDescription description = GNDescription.from(informalDescription, edgeDescription);
+
+                GNDiagram preview = new PreviewDiagramCreator().drawGroupedNetworkDiagram(description);
+
+                renderer.clear();
+                renderer.renderAsImage(preview);
+
+                task = new GNDiagramVisTask(description, renderer, newToken());
+            }
+
+            visService.setInput(task, true);
+            visService.restart();
+        } catch (Exception e) {
+            // input is incomplete while typing, so keep the last diagram
+            Log.INSTANCE.e(e);
+        }
     }
 
     private void initMenuDiagrams() {
@@ -141,33 +214,63 @@ public class Controller {
     }
 
     private void visualize(Description description) {
+        inputDelay.stop();
+
         progressDialog.show();
 
+        isUpdatingInput = true;
         fieldInput.setText(description.getInformalDescription());
+        isUpdatingInput = false;
 
-        visService.setInput(new EulerDiagramVisTask(description, renderer));
+        visService.setInput(new EulerDiagramVisTask(description, renderer, newToken()));
         visService.restart();
     }
 
     private void visualize(GNDescription description) {
+        inputDelay.stop();
+
         progressDialog.show();
 
         //fieldInput.setText(description.getInformalDescription());
 
-        visService.setInput(new GNDiagramVisTask(description, renderer));
+        visService.setInput(new GNDiagramVisTask(description, renderer, newToken()));
         visService.restart();
     }
 
+    private CancellationToken newToken() {
+        long budget = settings.anytimeBudget();
+
+        return budget > 0 ? new AnytimeToken(budget) : new CancellationToken();
+    }
+
     class VisualizationService extends Service<Void> {
 
         private VisTask<?> task;
 
+        /**
+         * Silent tasks run in the background while typing, so they do not show progress or errors.
+         */
+        private boolean isSilent;
+
         void setInput(VisTask<?> task) {
+            setInput(task, false);
+        }
+
+        void setInput(VisTask<?> task, boolean isSilent) {
+            // the previous task is about to be abandoned by restart(), so stop its work too
+            if (this.task != null)
+                this.task.cancel();
+
             this.task = task;
+            this.isSilent = isSilent;
         }
 
         @Override
         protected Task<Void> createTask() {
+            // capture, since input may change before this task completes
+            final VisTask<?> task = this.task;
+            final boolean isSilent = this.isSilent;
+
             return new Task<Void>() {
                 @Override
                 protected Void call() throws Exception {
@@ -192,9 +295,20 @@ public class Controller {
                     progressDialog.hide();
                 }
 
+                @Override
+                protected void cancelled() {
+                    task.cancel();
+                }
+
                 @Override
                 protected void failed() {
-                    showError(getException());
+                    if (isSilent) {
+                        // keep showing the preview
+                        Log.INSTANCE.e(getException());
+                    } else {
+                        showError(getException());
+                    }
+
                     progressDialog.hide();
                 }
             };
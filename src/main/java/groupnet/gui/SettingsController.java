@@ -1,5 +1,6 @@
 package groupnet.gui;
 
+import groupnet.util.Log;
 import groupnet.util.Settings;
 import javafx.beans.property.BooleanProperty;
 import javafx.fxml.FXML;
@@ -52,6 +53,27 @@ public class SettingsController extends Settings {
         return cbParallel.isSelected();
     }
 
+    @FXML
+    private TextField fieldAnytimeBudget;
+
+    /**
+     * A budget that is not a whole number of millis, including an empty field, means no budget.
+     */
+    @Override
+    public long anytimeBudget() {
+        String text = fieldAnytimeBudget.getText().trim();
+
+        if (text.isEmpty())
+            return 0;
+
+        try {
+            return Math.max(0, Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            Log.INSTANCE.i("Anytime budget '" + text + "' is not a number of millis, drawing without budget");
+            return 0;
+        }
+    }
+
     @FXML
     private CheckBox cbShowControls;
 
@@ -1,131 +1,112 @@
 package groupnet.algorithm
 
-import com.goebl.simplify.PointExtractor
-import com.goebl.simplify.Simplify
-import groupnet.algorithm.astar.AStarGrid
-import groupnet.algorithm.astar.NodeState
 import groupnet.euler.Zone
+import groupnet.geometry.PolygonClipper
 import groupnet.util.Bug
+import groupnet.util.CancellationToken
+import groupnet.util.Degradation
 import groupnet.util.Log
+import javafx.geometry.Point2D
 import javafx.scene.shape.Polyline
-import math.geom2d.Point2D
-import math.geom2d.polygon.Polygons2D
-import math.geom2d.polygon.SimplePolygon2D
 
 /**
  *
  *
  * @author Almas Baimagambetov (almaslvl@gmail.com)
  */
-class AStarEdgeRouter : EdgeRouter {
-
-    private val TILES = 50
-
-    override fun route(zone1: Zone, zone2: Zone): Polyline {
-
-        var union = Polygons2D.union(zone1.polygonShape, zone2.polygonShape)
-        val bbox = union.boundingBox()
-
-        val TILE_SIZE = (Math.min(bbox.width, bbox.height) / TILES).toInt()
-
-        // keep only distinct vertices
-        union = SimplePolygon2D(union.vertices().map { P(it.x().toInt(), it.y().toInt()) }.toSet().map { Point2D(it.x.toDouble(), it.y.toDouble()) })
-
-        val boundary = union.boundary()
-
-        // signed, so - if inside
-        val maxDistance: Double = try {
-            -Math.min(boundary.signedDistance(zone1.visualCenter.x, zone1.visualCenter.y), boundary.signedDistance(zone2.visualCenter.x, zone2.visualCenter.y))
-        } catch (e: Exception) {
-            1000.0
-        }
-
-        val grid = AStarGrid(bbox.width.toInt() / TILE_SIZE, bbox.height.toInt() / TILE_SIZE)
-
-        for (y in 0 until grid.height) {
-            for (x in 0 until grid.width) {
-                val tileCenter = Point2D(x.toDouble() * TILE_SIZE + TILE_SIZE / 2 + bbox.minX, y.toDouble() * TILE_SIZE + TILE_SIZE / 2 + bbox.minY)
+class AStarEdgeRouter(private val token: CancellationToken = CancellationToken(),
+
+                      /**
+                       * Raster of the diagram of the zones to route, shared by all its edges.
+                       * Routes are searched in a quadtree of the two zones if there is none or it cannot resolve them.
+                       */
+                      private val raster: ClearanceRaster? = null) : EdgeRouter {
+
+    /**
+     * Routes searched in a raster are only reused by routers with a raster on the same grid,
+     * since a different resolution routes differently or finds the zones too narrow.
+     * Routes searched in a quadtree are not reused by routers with a raster and vice versa.
+     */
+    private val configuration = if (raster != null && raster.isSupported)
+        doubleArrayOf(RASTER_MODE, *raster.grid)
+    else
+        doubleArrayOf(QUADTREE_MODE)
+
+    /**
+     * Smallest cells of the first attempt, as a fraction of the smaller side of the bounding box.
+     * Each further attempt allows cells 4 times smaller, for zones narrower than that.
+     */
+    private val MIN_CELL_FRACTION = 1.0 / 64
+
+    private val MAX_ATTEMPTS = 3
+
+    override fun route(zone1: Zone, zone2: Zone, start: Point2D, target: Point2D): Polyline {
+        return routeCache.getOrRoute(zone1, zone2, start, target, configuration, this::computeRoute)
+                ?: straightRoute(zone1, zone2, start, target)
+    }
 
-                val node = grid.getNode(x, y)
+    /**
+     * Anytime fallback for zones that no attempt could route: the edge is drawn as a straight segment,
+     * like edges that are left unrouted by [Degradation.STRAIGHT_EDGES].
+     * It is not cached, since it depends on the token rather than on the zones.
+     */
+    private fun straightRoute(zone1: Zone, zone2: Zone, start: Point2D, target: Point2D): Polyline {
+        if (!token.allowsDegradation)
+            throw Bug("Failed to route edge: $zone1 - $zone2")
 
-                try {
-                    if (union.contains(tileCenter)) {
-                        val dist = -boundary.signedDistance(tileCenter).toInt()
+        Log.i("No route between $zone1 - $zone2, using a straight segment")
 
-                        if (dist < TILE_SIZE) {
-                            node.state = NodeState.NOT_WALKABLE
-                            continue
-                        }
+        token.degraded(Degradation.STRAIGHT_EDGES)
 
-                        node.state = NodeState.WALKABLE
-                        node.gCost = ((1 - dist / maxDistance) * 5000).toInt()
+        return Polyline(start.x, start.y, target.x, target.y)
+    }
 
-                        if (node.gCost < 0) {
-                            node.gCost = 0
-                        }
-                    } else {
-                        node.state = NodeState.NOT_WALKABLE
-                    }
-                } catch (e: Exception) {
+    /**
+     * @return route between the zones, or null if no attempt found one
+     */
+    private fun computeRoute(zone1: Zone, zone2: Zone, start: Point2D, target: Point2D): Polyline? {
+        val path = raster?.findPath(zone1, zone2, start, target, token) ?: findPathInUnion(zone1, zone2, start, target) ?: return null
 
-                    Log.e(e)
+        val points = arrayListOf<Double>()
 
-                    node.state = NodeState.NOT_WALKABLE
-                }
-            }
-        }
+        // so that start vertices are exactly the same as requested
+        points.add(start.x)
+        points.add(start.y)
 
-        val startX = (zone1.visualCenter.x - bbox.minX) / TILE_SIZE
-        val startY = (zone1.visualCenter.y - bbox.minY) / TILE_SIZE
-        val targetX = (zone2.visualCenter.x - bbox.minX) / TILE_SIZE
-        val targetY = (zone2.visualCenter.y - bbox.minY) / TILE_SIZE
+        points.addAll(path.toList())
 
-        val path = grid.getPath(startX.toInt(), startY.toInt(), targetX.toInt(), targetY.toInt())
+        // so that end vertices are exactly the same as requested
+        points.add(target.x)
+        points.add(target.y)
 
-        if (path.isEmpty()) {
-            throw Bug("Failed to route edge: $zone1 - $zone2")
-        }
+        return Polyline(*simplifyRoute(points))
+    }
 
-        val points = arrayListOf<Double>()
+    private fun findPathInUnion(zone1: Zone, zone2: Zone, start: Point2D, target: Point2D): DoubleArray? {
+        val union = PolygonClipper.union(zone1.polygonShape, zone2.polygonShape)
+        val bbox = union.boundingBox()
 
-        // so that start vertices are exactly the same as requested
-        points.add(zone1.visualCenter.x)
-        points.add(zone1.visualCenter.y)
+        val unionIndex = PolygonDistanceIndex(union)
 
-        points.addAll(path.map { arrayListOf(it.x, it.y) }
-                .flatten()
-                .mapIndexed { index, value -> value.toDouble() * TILE_SIZE + TILE_SIZE / 2 + (if (index % 2 == 0) bbox.minX else bbox.minY) }
-                .dropLast(2)
-        )
+        // moves closer to the boundary than the start and target points cost more
+        val maxClearance = Math.min(unionIndex.boundaryDistance(start.x, start.y), unionIndex.boundaryDistance(target.x, target.y))
 
-        // so that end vertices are exactly the same as requested
-        points.add(zone2.visualCenter.x)
-        points.add(zone2.visualCenter.y)
+        var minCellSize = Math.min(bbox.width, bbox.height) * MIN_CELL_FRACTION
+        var path: DoubleArray? = null
 
-        return Polyline(*simplify(points))
-    }
+        for (attempt in 1..MAX_ATTEMPTS) {
+            val pathfinder = QuadtreePathfinder(unionIndex, bbox.minX, bbox.minY, bbox.maxX, bbox.maxY, minCellSize, token)
 
-    private fun simplify(points: List<Double>): DoubleArray {
-        val originalPoints = Converter.doubleArrayToPoints(points.toDoubleArray())
+            path = pathfinder.findPath(start.x, start.y, target.x, target.y, maxClearance)
 
-        // create an instance of the simplifier (empty array needed by List.toArray)
-        // run simplification process
-        val simplePoints = Simplify<javafx.geometry.Point2D>(arrayOf<javafx.geometry.Point2D>(), Extractor())
-                .simplify(originalPoints.toTypedArray(), /* tolerance = */ 200.0, /*highQuality =*/ false)
-                .toList()
+            if (path != null)
+                break
 
-        return Converter.pointsToDoubleArray(simplePoints)
-    }
+            Log.i("No route between $zone1 - $zone2 with ${pathfinder.size} cells, refining")
 
-    private class Extractor : PointExtractor<javafx.geometry.Point2D> {
-        override fun getY(p0: javafx.geometry.Point2D): Double {
-            return p0.y
+            minCellSize /= 4
         }
 
-        override fun getX(p0: javafx.geometry.Point2D): Double {
-            return p0.x
-        }
+        return path
     }
-
-    data class P(val x: Int, val y: Int)
-}
\ No newline at end of file
+}
@@ -0,0 +1,374 @@
+package groupnet.algorithm
+
+import groupnet.euler.EulerDiagram
+import groupnet.euler.Zone
+import groupnet.geometry.NodeHeap
+import groupnet.util.CancellationToken
+import javafx.geometry.Point2D
+
+/**
+ * Zones of a diagram rasterised once, with the distance of each cell to the nearest zone boundary,
+ * so that all edges of the diagram are routed against the same raster rather than each against its own.
+ * Computed in O(cells): curves are filled by scanlines and distances come from an exact Euclidean distance transform.
+ * A route is an A* search restricted to the cells of its two zones.
+ * Immutable once built, so routes can be searched in parallel.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class ClearanceRaster(d: EulerDiagram) {
+
+    private companion object {
+        val SQRT2 = Math.sqrt(2.0)
+
+        /**
+         * Number of cells along the longer side of the diagram.
+         */
+        const val RESOLUTION = 512
+
+        /**
+         * Zones narrower than this many cells are not routed, since the raster cannot resolve them.
+         */
+        const val MIN_ZONE_CELLS = 8
+
+        /**
+         * Curve masks are 64 bit, one bit is left so that masks are never negative.
+         */
+        const val MAX_CURVES = 63
+
+        const val NO_ZONE = -1
+
+        // large enough to be farther than any cell, yet finite so that no NaN comes out of the transform
+        const val FAR = 1e12
+    }
+
+    /**
+     * Diagrams with more curves than a mask can hold are not rasterised, all routes are then null.
+     */
+    val isSupported = d.curves.size <= MAX_CURVES
+
+    /**
+     * Cell size and origin of the raster, which routes depend on besides their two zones.
+     * Clearance inside two zones only depends on their own boundary,
+     * so the same zones rasterised on the same grid get the same route in any diagram.
+     */
+    val grid: DoubleArray
+        get() = doubleArrayOf(cellSize, minX, minY)
+
+    private val zoneIDs: Map<Zone, Int> = d.zones.withIndex().associate { it.value to it.index }
+
+    private val cellSize: Double
+    private val minX: Double
+    private val minY: Double
+
+    val width: Int
+    val height: Int
+
+    /**
+     * Zone ID of each cell, row by row.
+     */
+    private val ids: IntArray
+
+    /**
+     * Distance from each cell center to the nearest cell of another zone, in diagram units.
+     */
+    private val clearance: FloatArray
+
+    init {
+        val bbox = d.bbox()
+
+        cellSize = Math.max(bbox.width, bbox.height) / RESOLUTION
+
+        // one cell of margin, so that the outside zone surrounds all curves
+        minX = bbox.minX - cellSize
+        minY = bbox.minY - cellSize
+
+        width = if (isSupported) Math.ceil(bbox.width / cellSize).toInt() + 2 else 0
+        height = if (isSupported) Math.ceil(bbox.height / cellSize).toInt() + 2 else 0
+
+        val masks = LongArray(width * height)
+
+        if (isSupported) {
+            d.curveIndex.curves.forEachIndexed { i, curve -> fill(curve.geometry.polygon.contours().map { it.vertices() }, 1L shl i, masks) }
+        }
+
+        val idsByMask = d.zones.associate { (d.curveIndex.bitsOf(it.az).toLongArray().firstOrNull() ?: 0L) to zoneIDs[it]!! }
+
+        ids = IntArray(masks.size) { idsByMask[masks[it]] ?: NO_ZONE }
+
+        clearance = computeClearance()
+    }
+
+    /**
+     * Toggles [bit] of cells whose centers are inside the even-odd fill of [rings].
+     */
+    private fun fill(rings: List<Collection<math.geom2d.Point2D>>, bit: Long, masks: LongArray) {
+        val xs = rings.flatMap { ring -> ring.map { it.x() } }.toDoubleArray()
+        val ys = rings.flatMap { ring -> ring.map { it.y() } }.toDoubleArray()
+
+        // start of the ring that each vertex belongs to and its size, to close each ring
+        val ringStart = IntArray(xs.size)
+        val ringSize = IntArray(xs.size)
+
+        var offset = 0
+        for (ring in rings) {
+            for (j in 0 until ring.size) {
+                ringStart[offset + j] = offset
+                ringSize[offset + j] = ring.size
+            }
+
+            offset += ring.size
+        }
+
+        val rowMin = Math.max(0, row(ys.min() ?: return))
+        val rowMax = Math.min(height - 1, row(ys.max()!!))
+
+        val crossings = DoubleArray(xs.size)
+
+        for (r in rowMin..rowMax) {
+            val y = minY + (r + 0.5) * cellSize
+
+            var numCrossings = 0
+
+            for (i in 0 until xs.size) {
+                val j = ringStart[i] + (i - ringStart[i] + 1) % ringSize[i]
+
+                if ((ys[i] <= y) != (ys[j] <= y)) {
+                    crossings[numCrossings++] = xs[i] + (y - ys[i]) / (ys[j] - ys[i]) * (xs[j] - xs[i])
+                }
+            }
+
+            crossings.sort(0, numCrossings)
+
+            for (k in 0 until numCrossings - 1 step 2) {
+                // columns whose centers are in [crossings[k], crossings[k + 1])
+                val c0 = Math.max(0, Math.ceil((crossings[k] - minX) / cellSize - 0.5).toInt())
+                val c1 = Math.min(width, Math.ceil((crossings[k + 1] - minX) / cellSize - 0.5).toInt())
+
+                for (c in c0 until c1) {
+                    masks[r * width + c] = masks[r * width + c] xor bit
+                }
+            }
+        }
+    }
+
+    /**
+     * Cells next to a cell of another zone are at distance 0,
+     * the rest get their distance from the two pass transform of Felzenszwalb and Huttenlocher.
+     */
+    private fun computeClearance(): FloatArray {
+        val squared = DoubleArray(width * height) { i ->
+            val r = i / width
+            val c = i % width
+            val id = ids[i]
+
+            val isBoundary = c > 0 && ids[i - 1] != id
+                    || c < width - 1 && ids[i + 1] != id
+                    || r > 0 && ids[i - width] != id
+                    || r < height - 1 && ids[i + width] != id
+
+            if (isBoundary) 0.0 else FAR
+        }
+
+        val n = Math.max(width, height)
+        val f = DoubleArray(n)
+        val out = DoubleArray(n)
+        val v = IntArray(n)
+        val z = DoubleArray(n + 1)
+
+        for (c in 0 until width) {
+            for (r in 0 until height) f[r] = squared[r * width + c]
+            transform(f, height, out, v, z)
+            for (r in 0 until height) squared[r * width + c] = out[r]
+        }
+
+        for (r in 0 until height) {
+            for (c in 0 until width) f[c] = squared[r * width + c]
+            transform(f, width, out, v, z)
+            for (c in 0 until width) squared[r * width + c] = out[c]
+        }
+
+        return FloatArray(squared.size) { (Math.sqrt(squared[it]) * cellSize).toFloat() }
+    }
+
+    /**
+     * One dimensional squared distance transform of [f] into [out], using the lower envelope of parabolas.
+     */
+    private fun transform(f: DoubleArray, n: Int, out: DoubleArray, v: IntArray, z: DoubleArray) {
+        var k = 0
+        v[0] = 0
+        z[0] = Double.NEGATIVE_INFINITY
+        z[1] = Double.POSITIVE_INFINITY
+
+        for (q in 1 until n) {
+            var s = intersection(f, q, v[k])
+
+            while (s <= z[k]) {
+                k--
+                s = intersection(f, q, v[k])
+            }
+
+            k++
+            v[k] = q
+            z[k] = s
+            z[k + 1] = Double.POSITIVE_INFINITY
+        }
+
+        k = 0
+        for (q in 0 until n) {
+            while (z[k + 1] < q)
+                k++
+
+            val dq = (q - v[k]).toDouble()
+            out[q] = dq * dq + f[v[k]]
+        }
+    }
+
+    private fun intersection(f: DoubleArray, q: Int, p: Int): Double {
+        return ((f[q] + q.toDouble() * q) - (f[p] + p.toDouble() * p)) / (2.0 * q - 2.0 * p)
+    }
+
+    private fun row(y: Double) = Math.floor((y - minY) / cellSize).toInt()
+
+    private fun column(x: Double) = Math.floor((x - minX) / cellSize).toInt()
+
+    /**
+     * Moves are penalised near zone boundaries, up to the clearance of the start and target cells.
+     * Cells of [start] and [target] are always passable.
+     *
+     * @return centers of cells between [start] in [zone1] and [target] in [zone2] as x, y pairs,
+     * or null if the raster is too coarse for these zones or there is no path through them
+     */
+    fun findPath(zone1: Zone, zone2: Zone, start: Point2D, target: Point2D, token: CancellationToken): DoubleArray? {
+        val id1 = zoneIDs[zone1] ?: return null
+        val id2 = zoneIDs[zone2] ?: return null
+
+        if (!isSupported || isTooNarrow(zone1) || isTooNarrow(zone2))
+            return null
+
+        // search window, the bounding box of both zones
+        val c0 = Math.max(0, column(Math.min(zone1.bbox.minX, zone2.bbox.minX)) - 1)
+        val r0 = Math.max(0, row(Math.min(zone1.bbox.minY, zone2.bbox.minY)) - 1)
+        val c1 = Math.min(width - 1, column(Math.max(zone1.bbox.maxX, zone2.bbox.maxX)) + 1)
+        val r1 = Math.min(height - 1, row(Math.max(zone1.bbox.maxY, zone2.bbox.maxY)) + 1)
+
+        val w = c1 - c0 + 1
+        val h = r1 - r0 + 1
+
+        val startColumn = column(start.x)
+        val startRow = row(start.y)
+        val targetColumn = column(target.x)
+        val targetRow = row(target.y)
+
+        if (startColumn !in c0..c1 || startRow !in r0..r1 || targetColumn !in c0..c1 || targetRow !in r0..r1)
+            return null
+
+        // nodes are cells of the window
+        val startNode = (startRow - r0) * w + startColumn - c0
+        val targetNode = (targetRow - r0) * w + targetColumn - c0
+
+        if (startNode == targetNode)
+            return DoubleArray(0)
+
+        val walkable = BooleanArray(w * h) { node ->
+            val id = ids[(node / w + r0) * width + node % w + c0]
+
+            id == id1 || id == id2 || node == startNode || node == targetNode
+        }
+
+        val maxClearance = Math.min(clearanceOf(startNode, w, c0, r0), clearanceOf(targetNode, w, c0, r0))
+
+        val g = DoubleArray(w * h) { Double.POSITIVE_INFINITY }
+        val parent = IntArray(w * h) { -1 }
+        val closed = BooleanArray(w * h)
+
+        val open = NodeHeap()
+
+        g[startNode] = 0.0
+        open.add(startNode, heuristic(startNode, targetNode, w))
+
+        while (open.isNotEmpty()) {
+            token.checkpoint()
+
+            val current = open.poll()
+
+            if (closed[current])
+                continue
+
+            if (current == targetNode)
+                return buildPath(parent, startNode, targetNode, w, c0, r0)
+
+            closed[current] = true
+
+            val cx = current % w
+            val cy = current / w
+
+            for (dy in -1..1) {
+                for (dx in -1..1) {
+                    val nx = cx + dx
+                    val ny = cy + dy
+
+                    if (dx == 0 && dy == 0 || nx < 0 || ny < 0 || nx >= w || ny >= h)
+                        continue
+
+                    val next = ny * w + nx
+
+                    if (closed[next] || !walkable[next])
+                        continue
+
+                    // no cutting corners through cells of other zones
+                    if (dx != 0 && dy != 0 && (!walkable[cy * w + nx] || !walkable[ny * w + cx]))
+                        continue
+
+                    val step = if (dx != 0 && dy != 0) SQRT2 else 1.0
+
+                    val closeness = if (maxClearance <= 0) 0.0 else 1 - Math.min(clearanceOf(next, w, c0, r0), maxClearance) / maxClearance
+
+                    val newG = g[current] + step * cellSize * (1 + BOUNDARY_PENALTY * closeness)
+
+                    if (newG < g[next]) {
+                        g[next] = newG
+                        parent[next] = current
+                        open.add(next, newG + heuristic(next, targetNode, w))
+                    }
+                }
+            }
+        }
+
+        return null
+    }
+
+    private fun isTooNarrow(zone: Zone): Boolean {
+        return Math.min(zone.bbox.width, zone.bbox.height) < MIN_ZONE_CELLS * cellSize
+    }
+
+    private fun clearanceOf(node: Int, w: Int, c0: Int, r0: Int): Double {
+        return clearance[(node / w + r0) * width + node % w + c0].toDouble()
+    }
+
+    /**
+     * Straight line distance, a lower bound since every move costs at least its length.
+     */
+    private fun heuristic(from: Int, to: Int, w: Int): Double {
+        return Math.hypot((to % w - from % w).toDouble(), (to / w - from / w).toDouble()) * cellSize
+    }
+
+    private fun buildPath(parent: IntArray, start: Int, target: Int, w: Int, c0: Int, r0: Int): DoubleArray {
+        val path = arrayListOf<Int>()
+
+        var node = parent[target]
+        while (node != start) {
+            path.add(node)
+            node = parent[node]
+        }
+
+        path.reverse()
+
+        val points = DoubleArray(path.size * 2)
+        path.forEachIndexed { i, n ->
+            points[2 * i] = minX + (n % w + c0 + 0.5) * cellSize
+            points[2 * i + 1] = minY + (n / w + r0 + 0.5) * cellSize
+        }
+
+        return points
+    }
+}
@@ -0,0 +1,114 @@
+package groupnet.algorithm
+
+import groupnet.euler.AbstractZone
+import groupnet.euler.Zone
+import groupnet.geometry.FixedPolygon
+import javafx.geometry.Point2D
+import javafx.scene.shape.Polyline
+import java.util.*
+
+/**
+ * Routes of edges between zones, keyed by fingerprints of both zones and end points and by how the route was searched.
+ * A fingerprint is the abstract zone, the number of polygon vertices and a 64-bit hash of the vertices
+ * on the fixed-point grid, so keys stay small however large the polygons are.
+ * An entry stays valid while neither zone polygon nor end point changes,
+ * so it can be reused by later steps and by later diagrams routed the same way.
+ * Least recently used routes are dropped once there are more than [maxSize].
+ * Thread-safe.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class EdgeRouteCache(private val maxSize: Int) {
+
+    private companion object {
+
+        /**
+         * Marks pairs of zones without a route, a route always has at least its two end points.
+         */
+        val NO_ROUTE = DoubleArray(0)
+
+        /**
+         * 2^64 divided by the golden ratio, odd so that no bits are lost when multiplying.
+         */
+        const val HASH_MULTIPLIER = -0x61c8864680b583ebL
+
+        fun mix(hash: Long, value: Long): Long {
+            val h = (hash xor value) * HASH_MULTIPLIER
+            return h xor (h ushr 29)
+        }
+    }
+
+    private val routes = object : LinkedHashMap<Key, DoubleArray>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, DoubleArray>?) = size > maxSize
+    }
+
+    /**
+     * @param configuration routing mode and anything else that the route depends on besides both zones,
+     * e.g. resolution, so that routes searched differently are never mixed up
+     * @return cached route from [start] in [zone1] to [target] in [zone2], or the one computed by [router].
+     * Null if [router] found no route, which is cached too
+     */
+    fun getOrRoute(zone1: Zone, zone2: Zone, start: Point2D, target: Point2D, configuration: DoubleArray,
+                   router: (Zone, Zone, Point2D, Point2D) -> Polyline?): Polyline? {
+        val key = Key(configuration, fingerprint(zone1, start), fingerprint(zone2, target))
+
+        val points = synchronized(routes) { routes[key] } ?: (router(zone1, zone2, start, target)?.points?.toDoubleArray() ?: NO_ROUTE).also {
+            synchronized(routes) {
+                routes[key] = it
+            }
+        }
+
+        if (points === NO_ROUTE)
+            return null
+
+        // a new shape each time, since a shape can only be in one scene graph
+        return Polyline(*points)
+    }
+
+    fun clear() {
+        synchronized(routes) {
+            routes.clear()
+        }
+    }
+
+    /**
+     * The route depends on the zone polygons and on the end points in them,
+     * which are not always visual centres of the polygons, e.g. for vertices kept from an earlier step.
+     * Geometry is not compared beyond the hash, a 64-bit collision of the same zone with the same
+     * number of vertices is unlikely enough.
+     */
+    private fun fingerprint(zone: Zone, point: Point2D): Fingerprint {
+        var numVertices = 0
+        var ringHash = 0L
+
+        for (ring in zone.polygonShape.contours()) {
+            ringHash = mix(ringHash, ring.vertexNumber().toLong())
+
+            for (v in ring.vertices()) {
+                ringHash = mix(mix(ringHash, FixedPolygon.toFixed(v.x())), FixedPolygon.toFixed(v.y()))
+                numVertices++
+            }
+        }
+
+        return Fingerprint(zone.az, numVertices, ringHash, FixedPolygon.toFixed(point.x), FixedPolygon.toFixed(point.y))
+    }
+
+    private data class Fingerprint(val az: AbstractZone, val numVertices: Int, val ringHash: Long, val x: Long, val y: Long)
+
+    private class Key(private val configuration: DoubleArray, private val end1: Fingerprint, private val end2: Fingerprint) {
+
+        private val hash = 31 * (31 * Arrays.hashCode(configuration) + end1.hashCode()) + end2.hashCode()
+
+        override fun hashCode() = hash
+
+        override fun equals(other: Any?): Boolean {
+            if (other !is Key)
+                return false
+
+            return hash == other.hash
+                    && Arrays.equals(configuration, other.configuration)
+                    && end1 == other.end1
+                    && end2 == other.end2
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package groupnet.algorithm
 
+import com.goebl.simplify.PointExtractor
+import com.goebl.simplify.Simplify
 import groupnet.euler.Zone
+import javafx.geometry.Point2D
 import javafx.scene.shape.Polyline
 
 /**
@@ -11,7 +14,52 @@ import javafx.scene.shape.Polyline
 interface EdgeRouter {
 
     /**
-     * Route an edge between two topologically adjacent zones.
+     * Route an edge between two topologically adjacent zones, from [start] in [zone1] to [target] in [zone2].
      */
-    fun route(zone1: Zone, zone2: Zone): Polyline
-}
\ No newline at end of file
+    fun route(zone1: Zone, zone2: Zone, start: Point2D = zone1.visualCenter, target: Point2D = zone2.visualCenter): Polyline
+}
+
+/**
+ * Shared by all routers, so that routes are reused across steps and diagrams.
+ */
+internal val routeCache = EdgeRouteCache(2000)
+
+fun clearRouteCache() {
+    routeCache.clear()
+}
+
+// how routes are searched, the first value of each route cache configuration
+internal const val QUADTREE_MODE = 0.0
+internal const val RASTER_MODE = 1.0
+internal const val MEDIAL_AXIS_MODE = 2.0
+
+/**
+ * How much more it costs to move at the boundary than far from it.
+ * Shared by all routers, so that they prefer the same routes.
+ */
+internal const val BOUNDARY_PENALTY = 2.0
+
+/**
+ * @return x, y pairs of [points] without vertices that barely change the route, end vertices are kept
+ */
+internal fun simplifyRoute(points: List<Double>): DoubleArray {
+    val originalPoints = Converter.doubleArrayToPoints(points.toDoubleArray())
+
+    // create an instance of the simplifier (empty array needed by List.toArray)
+    // run simplification process
+    val simplePoints = Simplify<javafx.geometry.Point2D>(arrayOf<javafx.geometry.Point2D>(), Extractor())
+            .simplify(originalPoints.toTypedArray(), /* tolerance = */ 200.0, /*highQuality =*/ false)
+            .toList()
+
+    return Converter.pointsToDoubleArray(simplePoints)
+}
+
+private class Extractor : PointExtractor<javafx.geometry.Point2D> {
+    override fun getY(p0: javafx.geometry.Point2D): Double {
+        return p0.y
+    }
+
+    override fun getX(p0: javafx.geometry.Point2D): Double {
+        return p0.x
+    }
+}
@@ -0,0 +1,242 @@
+package groupnet.algorithm
+
+import groupnet.euler.Curve
+import groupnet.euler.EulerDiagram
+import groupnet.euler.SpatialIndex
+import groupnet.euler.curves.CircleCurve
+import groupnet.geometry.RTree
+import groupnet.util.async
+import groupnet.util.await
+import javafx.geometry.Point2D
+
+/**
+ * Places curve labels outside their curves, away from other curves and from each other.
+ * Candidates are scored in parallel: curves containing a candidate are looked up
+ * in the spatial index of the diagram, distances to other curves come from an R-tree of all curve segments,
+ * then each label takes its best candidate that does not overlap a label placed before it.
+ * Only geometry is used, so positions can be computed off the FX thread.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class LabelPlacement(diagram: EulerDiagram) {
+
+    private companion object {
+
+        /**
+         * Approximate size of a label in diagram units, per character of width.
+         */
+        const val LABEL_WIDTH = 300.0
+        const val LABEL_HEIGHT = 400.0
+
+        /**
+         * How "close" a curve that contains the point is still considered,
+         * because of polygon <-> smooth representations we might lose precision.
+         */
+        const val INSIDE_THRESHOLD = 20.0
+    }
+
+    private val curves = diagram.curves.toList()
+
+    private val curveIndices = curves.withIndex().associate { (i, curve) -> curve to i }
+
+    private val spatialIndex: SpatialIndex = diagram.spatialIndex
+
+    // segments of all curves, from (x0, y0) to (x1, y1)
+    private val segmentCurve: IntArray
+    private val x0: DoubleArray
+    private val y0: DoubleArray
+    private val x1: DoubleArray
+    private val y1: DoubleArray
+
+    private val segments: RTree
+
+    init {
+        val polygons = this.curves.map { it.geometry.polygon.vertices().toList() }
+        val numSegments = polygons.sumBy { it.size }
+
+        segmentCurve = IntArray(numSegments)
+        x0 = DoubleArray(numSegments)
+        y0 = DoubleArray(numSegments)
+        x1 = DoubleArray(numSegments)
+        y1 = DoubleArray(numSegments)
+
+        var i = 0
+        polygons.forEachIndexed { c, vertices ->
+            vertices.forEachIndexed { j, v ->
+                val next = vertices[(j + 1) % vertices.size]
+
+                segmentCurve[i] = c
+                x0[i] = v.x()
+                y0[i] = v.y()
+                x1[i] = next.x()
+                y1[i] = next.y()
+                i++
+            }
+        }
+
+        segments = RTree(
+                DoubleArray(numSegments) { Math.min(x0[it], x1[it]) },
+                DoubleArray(numSegments) { Math.min(y0[it], y1[it]) },
+                DoubleArray(numSegments) { Math.max(x0[it], x1[it]) },
+                DoubleArray(numSegments) { Math.max(y0[it], y1[it]) }
+        )
+    }
+
+    /**
+     * Computes label positions of [curvesToPlace], labels of other curves stay where they are.
+     *
+     * @return new label positions
+     */
+    fun computePositions(curvesToPlace: Collection<Curve>): Map<Curve, Point2D> {
+        // scoring does not depend on other labels, so it runs in parallel
+        val candidates = curvesToPlace.sorted()
+                .map { curve -> async { curve to rankCandidates(curve) } }
+                .map { it.await() }
+
+        val placed = curves.filter { it !in curvesToPlace }
+                .map { LabelBox(it.label, it.getLabelPositionX(), it.getLabelPositionY()) }
+                .toMutableList()
+
+        val positions = linkedMapOf<Curve, Point2D>()
+
+        candidates.forEach { (curve, ranked) ->
+            val best = ranked.find { p ->
+                val label = LabelBox(curve.label, p.x, p.y)
+                placed.none { it.overlaps(label) }
+            } ?: ranked.first()
+
+            placed.add(LabelBox(curve.label, best.x, best.y))
+            positions[curve] = best
+        }
+
+        return positions
+    }
+
+    /**
+     * Computes and sets label positions of [curvesToPlace].
+     */
+    fun placeLabels(curvesToPlace: Collection<Curve> = curves) {
+        computePositions(curvesToPlace).forEach { curve, p ->
+            curve.setLabelPositionX(p.x)
+            curve.setLabelPositionY(p.y)
+        }
+    }
+
+    /**
+     * @return candidate positions for the label of [curve], best first
+     */
+    private fun rankCandidates(curve: Curve): List<Point2D> {
+        val index = curveIndices[curve]!!
+        val polygon = curve.geometry.polygon
+        val center = polygon.centroid()
+
+        val magnitude = capMagnitude(if (curve is CircleCurve) curve.radius / 3 else 150.0)
+
+        return polygon.vertices()
+                .map { Point2D(it.x(), it.y()) }
+                // compute vector outwards
+                .map { it.add(it.subtract(center.x(), center.y()).normalize().multiply(magnitude)) }
+                .map { it to score(it, index) }
+                .sortedBy { it.second }
+                .map { it.first }
+    }
+
+    private fun capMagnitude(mag: Double): Double {
+        if (mag > 300)
+            return 300.0
+
+        if (mag < 150)
+            return 150.0
+
+        return mag
+    }
+
+    /**
+     * Lower is better.
+     */
+    private fun score(p: Point2D, ownCurve: Int): Double {
+        val inside = containingCurves(p)
+        inside[ownCurve] = false
+
+        val numCurves = inside.count { it }
+
+        // number of curves has a more significant impact
+        return 2000.0 * numCurves - minDistanceToOtherCurves(p, ownCurve, inside)
+    }
+
+    /**
+     * Only curves whose bounding boxes contain [p] are tested.
+     *
+     * @return whether each curve contains [p], by curve index
+     */
+    private fun containingCurves(p: Point2D): BooleanArray {
+        val inside = BooleanArray(curves.size)
+
+        spatialIndex.curvesContaining(p.x, p.y).forEach { inside[curveIndices[it]!!] = true }
+
+        return inside
+    }
+
+    /**
+     * Signed distance to the closest other curve, ignoring curves that contain [p] unless it is close to them.
+     * Curves are visited in order of distance, so only those near [p] are tested.
+     */
+    private fun minDistanceToOtherCurves(p: Point2D, ownCurve: Int, inside: BooleanArray): Double {
+        val visited = hashSetOf(ownCurve)
+
+        // distance to the farthest close curve that contains p, if any
+        var insideDistance = -1.0
+
+        // distance to the closest curve that does not contain p, if any
+        var outsideDistance = -1.0
+
+        segments.nearest(p.x, p.y, { distanceToSegment(it, p.x, p.y) }) { segment, distance ->
+            // no more close curves, and the result is known
+            if (distance > INSIDE_THRESHOLD && (insideDistance >= 0 || outsideDistance >= 0))
+                return@nearest false
+
+            val curve = segmentCurve[segment]
+
+            if (visited.add(curve)) {
+                if (inside[curve]) {
+                    if (distance <= INSIDE_THRESHOLD)
+                        insideDistance = distance
+                } else if (outsideDistance < 0) {
+                    outsideDistance = distance
+                }
+            }
+
+            true
+        }
+
+        if (insideDistance >= 0)
+            return -insideDistance
+
+        if (outsideDistance >= 0)
+            return outsideDistance
+
+        return 0.0
+    }
+
+    private fun distanceToSegment(i: Int, x: Double, y: Double): Double {
+        val dx = x1[i] - x0[i]
+        val dy = y1[i] - y0[i]
+        val lengthSq = dx * dx + dy * dy
+
+        val t = if (lengthSq == 0.0) 0.0 else Math.max(0.0, Math.min(1.0, ((x - x0[i]) * dx + (y - y0[i]) * dy) / lengthSq))
+
+        return Math.hypot(x0[i] + t * dx - x, y0[i] + t * dy - y)
+    }
+
+    /**
+     * Approximate bounds of a label centered at (x, y).
+     */
+    private class LabelBox(text: String, val x: Double, val y: Double) {
+
+        val halfWidth = LABEL_WIDTH * text.length / 2
+
+        fun overlaps(other: LabelBox): Boolean {
+            return Math.abs(x - other.x) < halfWidth + other.halfWidth && Math.abs(y - other.y) < LABEL_HEIGHT
+        }
+    }
+}
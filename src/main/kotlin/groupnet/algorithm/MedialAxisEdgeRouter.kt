@@ -0,0 +1,395 @@
+package groupnet.algorithm
+
+import groupnet.algorithm.voronoi.VoronoiBuilder
+import groupnet.algorithm.voronoi.VoronoiBuilder.EDGE_SIZE
+import groupnet.euler.Zone
+import groupnet.geometry.FixedPolygon
+import groupnet.geometry.NodeHeap
+import groupnet.geometry.PolygonClipper
+import groupnet.util.CancellationToken
+import groupnet.util.Log
+import javafx.geometry.Point2D
+import javafx.scene.shape.Polyline
+import math.geom2d.polygon.Polygon2D
+
+/**
+ * Routes edges along the medial axis of the union of both zones, i.e. along their centre lines.
+ * The axis is approximated by the Voronoi diagram of points sampled densely along the boundary,
+ * keeping only edges inside the union between samples that are not next to each other.
+ * The shortest path over the axis is then found by Dijkstra, with moves close to the boundary costing more.
+ * The cost depends on the number of samples rather than on the area of the zones,
+ * and the Voronoi diagram is built without allocation once the arenas of a thread have grown.
+ * Routes are searched by the fallback router if the axis does not connect both zones.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class MedialAxisEdgeRouter(private val token: CancellationToken = CancellationToken(),
+
+                           /**
+                            * Creates the router of edges whose zones are not connected by the axis,
+                            * only called when there are such edges.
+                            */
+                           private val fallback: () -> EdgeRouter = { AStarEdgeRouter(token) }) : EdgeRouter {
+
+    private companion object {
+
+        val CONFIGURATION = doubleArrayOf(MEDIAL_AXIS_MODE)
+
+        /**
+         * Boundary samples per smaller side of the bounding box, fewer if there would be more than [MAX_SAMPLES].
+         */
+        const val SAMPLES_PER_SIDE = 64
+
+        const val MAX_SAMPLES = 4000
+
+        fun pack(x: Long, y: Long) = (x shl 32) or (y and 0xFFFFFFFFL)
+
+        /**
+         * Voronoi arenas and sample arrays are reused by all routes in the same thread.
+         */
+        val workspaces = ThreadLocal.withInitial { Workspace() }
+    }
+
+    private class Workspace {
+        val builder = VoronoiBuilder(0.0)
+
+        private var xs = DoubleArray(0)
+        private var ys = DoubleArray(0)
+        private var edges = DoubleArray(0)
+
+        fun xs(size: Int): DoubleArray {
+            if (xs.size < size) xs = DoubleArray(size)
+            return xs
+        }
+
+        fun ys(size: Int): DoubleArray {
+            if (ys.size < size) ys = DoubleArray(size)
+            return ys
+        }
+
+        fun edges(size: Int): DoubleArray {
+            if (edges.size < size) edges = DoubleArray(size)
+            return edges
+        }
+    }
+
+    override fun route(zone1: Zone, zone2: Zone, start: Point2D, target: Point2D): Polyline {
+        return routeCache.getOrRoute(zone1, zone2, start, target, CONFIGURATION, this::computeRoute)
+                ?: fallback().route(zone1, zone2, start, target)
+    }
+
+    /**
+     * @return route along the medial axis, or null if the axis does not connect both zones
+     */
+    private fun computeRoute(zone1: Zone, zone2: Zone, start: Point2D, target: Point2D): Polyline? {
+        val union = PolygonClipper.union(zone1.polygonShape, zone2.polygonShape)
+
+        val path = Skeleton(union).findPath(start.x, start.y, target.x, target.y)
+
+        if (path == null) {
+            Log.i("Medial axis does not connect $zone1 - $zone2, using fallback router")
+
+            return null
+        }
+
+        val points = arrayListOf<Double>()
+
+        // so that start vertices are exactly the same as requested
+        points.add(start.x)
+        points.add(start.y)
+
+        points.addAll(path.toList())
+
+        // so that end vertices are exactly the same as requested
+        points.add(target.x)
+        points.add(target.y)
+
+        return Polyline(*simplifyRoute(points))
+    }
+
+    /**
+     * Medial axis of [polygon] as a graph, whose vertices are Voronoi vertices keyed by their grid position.
+     */
+    private inner class Skeleton(polygon: Polygon2D) {
+
+        private val index = PolygonDistanceIndex(polygon)
+
+        private val vertexIDs = hashMapOf<Long, Int>()
+
+        private var numVertices = 0
+        private var vx = DoubleArray(64)
+        private var vy = DoubleArray(64)
+
+        // adjacency lists, edges of vertex v are (edgeTargets[e], edgeLengths[e]) for e in edgeStart[v] until edgeStart[v + 1]
+        private val edgeStart: IntArray
+        private val edgeTargets: IntArray
+        private val edgeLengths: DoubleArray
+
+        /**
+         * Distance of each vertex to the boundary.
+         */
+        private val clearance: DoubleArray
+
+        /**
+         * Distance between boundary samples.
+         */
+        private val spacing: Double
+
+        init {
+            val bbox = polygon.boundingBox()
+            val rings = polygon.contours().map { it.vertices().toList() }
+
+            val perimeter = rings.sumByDouble { ring -> ring.indices.sumByDouble { ring[it].distance(ring[(it + 1) % ring.size]) } }
+
+            spacing = Math.max(Math.min(bbox.width, bbox.height) / SAMPLES_PER_SIDE, perimeter / MAX_SAMPLES)
+
+            val workspace = workspaces.get()
+
+            // samples are numbered along each ring, so that neighbours along the boundary have consecutive numbers
+            val ringStart = IntArray(rings.size + 1)
+
+            rings.forEachIndexed { r, ring ->
+                ringStart[r + 1] = ringStart[r] + ring.indices.sumBy { samplesOf(ring[it], ring[(it + 1) % ring.size], spacing) }
+            }
+
+            val numSamples = ringStart[rings.size]
+            val xs = workspace.xs(numSamples)
+            val ys = workspace.ys(numSamples)
+
+            var sample = 0
+
+            for (ring in rings) {
+                for (i in ring.indices) {
+                    val p = ring[i]
+                    val q = ring[(i + 1) % ring.size]
+
+                    val n = samplesOf(p, q, spacing)
+
+                    for (k in 0 until n) {
+                        xs[sample] = p.x() + (q.x() - p.x()) * k / n
+                        ys[sample] = p.y() + (q.y() - p.y()) * k / n
+                        sample++
+                    }
+                }
+            }
+
+            token.checkpoint()
+
+            val edges = workspace.edges(VoronoiBuilder.maxValues(numSamples))
+            val numEdges = workspace.builder.generate(xs, ys, numSamples, bbox.minX, bbox.maxX, bbox.minY, bbox.maxY, edges, 0)
+
+            token.checkpoint()
+
+            val from = arrayListOf<Int>()
+            val to = arrayListOf<Int>()
+
+            for (e in 0 until numEdges) {
+                val x1 = edges[e * EDGE_SIZE]
+                val y1 = edges[e * EDGE_SIZE + 1]
+                val x2 = edges[e * EDGE_SIZE + 2]
+                val y2 = edges[e * EDGE_SIZE + 3]
+
+                if (areNeighbours(edges[e * EDGE_SIZE + 4].toInt(), edges[e * EDGE_SIZE + 5].toInt(), ringStart))
+                    continue
+
+                if (!index.containsEvenOdd(x1, y1) || !index.containsEvenOdd(x2, y2) || !index.containsEvenOdd((x1 + x2) / 2, (y1 + y2) / 2))
+                    continue
+
+                val v1 = vertexAt(x1, y1)
+                val v2 = vertexAt(x2, y2)
+
+                if (v1 != v2) {
+                    from.add(v1)
+                    to.add(v2)
+                }
+            }
+
+            clearance = DoubleArray(numVertices) { index.boundaryDistance(vx[it], vy[it]) }
+
+            edgeStart = IntArray(numVertices + 1)
+            edgeTargets = IntArray(from.size * 2)
+            edgeLengths = DoubleArray(from.size * 2)
+
+            from.forEach { edgeStart[it + 1]++ }
+            to.forEach { edgeStart[it + 1]++ }
+            for (v in 0 until numVertices) edgeStart[v + 1] += edgeStart[v]
+
+            val next = edgeStart.copyOf(numVertices)
+
+            for (e in from.indices) {
+                val length = Math.hypot(vx[to[e]] - vx[from[e]], vy[to[e]] - vy[from[e]])
+
+                edgeTargets[next[from[e]]] = to[e]
+                edgeLengths[next[from[e]]++] = length
+
+                edgeTargets[next[to[e]]] = from[e]
+                edgeLengths[next[to[e]]++] = length
+            }
+        }
+
+        private fun samplesOf(p: math.geom2d.Point2D, q: math.geom2d.Point2D, spacing: Double): Int {
+            return Math.max(1, Math.ceil(p.distance(q) / spacing).toInt())
+        }
+
+        /**
+         * Samples next to each other along the same ring, whose Voronoi edge crosses the boundary between them.
+         */
+        private fun areNeighbours(site1: Int, site2: Int, ringStart: IntArray): Boolean {
+            val r = ringOf(site1, ringStart)
+
+            if (r != ringOf(site2, ringStart))
+                return false
+
+            val n = ringStart[r + 1] - ringStart[r]
+            val diff = Math.abs(site1 - site2)
+
+            return diff == 1 || diff == n - 1
+        }
+
+        private fun ringOf(site: Int, ringStart: IntArray): Int {
+            var r = 0
+            while (ringStart[r + 1] <= site) r++
+
+            return r
+        }
+
+        private fun vertexAt(x: Double, y: Double): Int {
+            val key = pack(FixedPolygon.toFixed(x), FixedPolygon.toFixed(y))
+
+            return vertexIDs.getOrPut(key) {
+                if (numVertices == vx.size) {
+                    vx = vx.copyOf(numVertices * 2)
+                    vy = vy.copyOf(numVertices * 2)
+                }
+
+                vx[numVertices] = x
+                vy[numVertices] = y
+                numVertices++
+            }
+        }
+
+        /**
+         * The start and target points are joined to vertices as in [joinedVertices].
+         *
+         * @return vertices of the path between start and target as x, y pairs,
+         * or null if they are not connected or cannot be joined to the axis
+         */
+        fun findPath(startX: Double, startY: Double, targetX: Double, targetY: Double): DoubleArray? {
+            if (numVertices == 0)
+                return null
+
+            val startClearance = index.boundaryDistance(startX, startY)
+            val targetClearance = index.boundaryDistance(targetX, targetY)
+
+            // moves closer to the boundary than the start and target points cost more
+            val maxClearance = Math.min(startClearance, targetClearance)
+
+            val sources = joinedVertices(startX, startY, startClearance)
+            val targets = joinedVertices(targetX, targetY, targetClearance).toSet()
+
+            if (sources.isEmpty() || targets.isEmpty())
+                return null
+
+            val distance = DoubleArray(numVertices) { Double.POSITIVE_INFINITY }
+            val parent = IntArray(numVertices) { -1 }
+            val closed = BooleanArray(numVertices)
+
+            val open = NodeHeap()
+
+            for (v in sources) {
+                distance[v] = Math.hypot(vx[v] - startX, vy[v] - startY)
+                open.add(v, distance[v])
+            }
+
+            // the target is reached once the closest vertex joined to it is closed
+            var best = Double.POSITIVE_INFINITY
+            var bestVertex = -1
+
+            while (open.isNotEmpty()) {
+                token.checkpoint()
+
+                val current = open.poll()
+
+                if (closed[current])
+                    continue
+
+                if (distance[current] >= best)
+                    break
+
+                closed[current] = true
+
+                if (current in targets) {
+                    val total = distance[current] + Math.hypot(targetX - vx[current], targetY - vy[current])
+
+                    if (total < best) {
+                        best = total
+                        bestVertex = current
+                    }
+                }
+
+                for (e in edgeStart[current] until edgeStart[current + 1]) {
+                    val next = edgeTargets[e]
+
+                    if (closed[next])
+                        continue
+
+                    val closeness = if (maxClearance <= 0) 0.0 else 1 - Math.min(clearance[next], maxClearance) / maxClearance
+
+                    val newDistance = distance[current] + edgeLengths[e] * (1 + BOUNDARY_PENALTY * closeness)
+
+                    if (newDistance < distance[next]) {
+                        distance[next] = newDistance
+                        parent[next] = current
+                        open.add(next, newDistance)
+                    }
+                }
+            }
+
+            if (bestVertex == -1)
+                return null
+
+            val path = arrayListOf<Int>()
+
+            var v = bestVertex
+            while (v != -1) {
+                path.add(v)
+                v = parent[v]
+            }
+
+            path.reverse()
+
+            val points = DoubleArray(path.size * 2)
+            path.forEachIndexed { i, p ->
+                points[2 * i] = vx[p]
+                points[2 * i + 1] = vy[p]
+            }
+
+            return points
+        }
+
+        /**
+         * Point (x, y) is joined to all vertices within [radius], its distance to the boundary,
+         * since segments to them stay within the disk that the boundary does not enter.
+         * If there are none, it is joined to its closest vertex only if the segment to it stays inside,
+         * which is checked at points half the sample spacing apart.
+         *
+         * @return vertices joined to point (x, y), empty if none can be joined
+         */
+        private fun joinedVertices(x: Double, y: Double, radius: Double): List<Int> {
+            val within = (0 until numVertices).filter { Math.hypot(vx[it] - x, vy[it] - y) < radius }
+
+            if (within.isNotEmpty())
+                return within
+
+            val closest = (0 until numVertices).minBy { Math.hypot(vx[it] - x, vy[it] - y) }!!
+
+            return if (isSegmentInside(x, y, vx[closest], vy[closest])) listOf(closest) else emptyList()
+        }
+
+        private fun isSegmentInside(x1: Double, y1: Double, x2: Double, y2: Double): Boolean {
+            val n = Math.max(1, Math.ceil(Math.hypot(x2 - x1, y2 - y1) / (spacing / 2)).toInt())
+
+            return (0..n).all { k -> index.containsEvenOdd(x1 + (x2 - x1) * k / n, y1 + (y2 - y1) * k / n) }
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package groupnet.algorithm
+
+import math.geom2d.polygon.LinearRing2D
+import math.geom2d.polygon.MultiPolygon2D
+import math.geom2d.polygon.Polygon2D
+
+/**
+ * Answers distance queries against the boundary of a polygon in O(log n) rather than O(n),
+ * using a bounding volume hierarchy over the edges of each ring.
+ * Results are the same as those of javaGeom, including its sign conventions,
+ * i.e. [signedDistance] is the same as polygon.boundary().signedDistance().
+ * Immutable once built, so it can be shared between threads.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class PolygonDistanceIndex(polygon: Polygon2D) {
+
+    private companion object {
+        const val ACCURACY = 1e-12
+
+        const val LEAF_SIZE = 4
+    }
+
+    val isMultiPolygon = polygon is MultiPolygon2D
+
+    private val rings: List<Ring> = polygon.contours().map { Ring(it) }
+
+    /**
+     * Same as polygon.boundary().signedDistance(x, y), negative if the point is inside.
+     */
+    fun signedDistance(x: Double, y: Double) = combine(x, y, complement = false)
+
+    /**
+     * Same as polygon.complement().boundary().signedDistance(x, y).
+     */
+    fun complementSignedDistance(x: Double, y: Double) = combine(x, y, complement = true)
+
+    /**
+     * Same as polygon.contains(x, y) for a simple polygon, points on the boundary are inside.
+     */
+    fun isInside(x: Double, y: Double): Boolean {
+        return if (rings.size == 1) rings[0].isInside(x, y, complement = false) else signedDistance(x, y) <= 0
+    }
+
+    /**
+     * Even-odd rule, so unlike [isInside] it does not depend on the orientation of rings.
+     */
+    fun containsEvenOdd(x: Double, y: Double) = rings.count { it.winding(x, y) != 0 } % 2 == 1
+
+    /**
+     * Unsigned, so unlike [signedDistance] it does not depend on the orientation of rings.
+     *
+     * @return distance from point (x, y) to the closest ring
+     */
+    fun boundaryDistance(x: Double, y: Double): Double {
+        var best = Double.MAX_VALUE
+
+        for (ring in rings) {
+            best = Math.min(best, ring.distance(x, y))
+        }
+
+        return best
+    }
+
+    /**
+     * Combines distances of rings in the same (somewhat peculiar) way as javaGeom contour arrays.
+     */
+    private fun combine(x: Double, y: Double, complement: Boolean): Double {
+        var best = Double.POSITIVE_INFINITY
+        var current = Double.POSITIVE_INFINITY
+
+        for (ring in rings) {
+            current = Math.min(current, ring.signedDistance(x, y, complement))
+
+            if (Math.abs(current) < Math.abs(best))
+                best = current
+        }
+
+        return best
+    }
+
+    /**
+     * A closed ring of edges, the complement of a ring is the same ring reversed.
+     */
+    private class Ring(ring: LinearRing2D) {
+
+        private val size: Int
+
+        // edges from (x0, y0) to (x1, y1)
+        private val x0: DoubleArray
+        private val y0: DoubleArray
+        private val x1: DoubleArray
+        private val y1: DoubleArray
+
+        private val isPositive: Boolean
+
+        // hierarchy nodes in depth-first order, a leaf has count > 0,
+        // otherwise the left child is the next node and start is the index of the right child
+        private val minX: DoubleArray
+        private val minY: DoubleArray
+        private val maxX: DoubleArray
+        private val maxY: DoubleArray
+        private val start: IntArray
+        private val count: IntArray
+        private var numNodes = 0
+
+        init {
+            val vertices = ring.vertices().toList()
+
+            val edges = vertices.indices
+                    .map { vertices[it] to vertices[(it + 1) % vertices.size] }
+                    // zero length edges do not count in javaGeom
+                    .filter { (p1, p2) -> Math.hypot(p2.x() - p1.x(), p2.y() - p1.y()) != 0.0 }
+
+            size = edges.size
+            x0 = DoubleArray(size) { edges[it].first.x() }
+            y0 = DoubleArray(size) { edges[it].first.y() }
+            x1 = DoubleArray(size) { edges[it].second.x() }
+            y1 = DoubleArray(size) { edges[it].second.y() }
+
+            // same summation order as javaGeom, so that the sign is the same for degenerate rings
+            var area = 0.0
+            var prev = vertices.lastOrNull()
+            for (v in vertices) {
+                area += prev!!.x() * v.y() - prev.y() * v.x()
+                prev = v
+            }
+
+            isPositive = area / 2 > 0
+
+            val maxNodes = 2 * size + 1
+            minX = DoubleArray(maxNodes)
+            minY = DoubleArray(maxNodes)
+            maxX = DoubleArray(maxNodes)
+            maxY = DoubleArray(maxNodes)
+            start = IntArray(maxNodes)
+            count = IntArray(maxNodes)
+
+            if (size > 0) {
+                val order = IntArray(size) { it }
+                build(order, 0, size)
+
+                // leaves refer to positions in order, so edges are stored in that order
+                val edgeData = arrayOf(x0, y0, x1, y1).map { data -> order.map { data[it] } }
+                for (i in 0 until size) {
+                    x0[i] = edgeData[0][i]
+                    y0[i] = edgeData[1][i]
+                    x1[i] = edgeData[2][i]
+                    y1[i] = edgeData[3][i]
+                }
+            }
+        }
+
+        private fun build(order: IntArray, from: Int, to: Int) {
+            val node = numNodes++
+
+            var boxMinX = Double.POSITIVE_INFINITY
+            var boxMinY = Double.POSITIVE_INFINITY
+            var boxMaxX = Double.NEGATIVE_INFINITY
+            var boxMaxY = Double.NEGATIVE_INFINITY
+
+            for (i in from until to) {
+                val e = order[i]
+                boxMinX = minOf(boxMinX, x0[e], x1[e])
+                boxMinY = minOf(boxMinY, y0[e], y1[e])
+                boxMaxX = maxOf(boxMaxX, x0[e], x1[e])
+                boxMaxY = maxOf(boxMaxY, y0[e], y1[e])
+            }
+
+            minX[node] = boxMinX
+            minY[node] = boxMinY
+            maxX[node] = boxMaxX
+            maxY[node] = boxMaxY
+
+            if (to - from <= LEAF_SIZE) {
+                start[node] = from
+                count[node] = to - from
+                return
+            }
+
+            // split along the longer side by edge midpoints
+            val byX = boxMaxX - boxMinX >= boxMaxY - boxMinY
+            val sorted = order.copyOfRange(from, to)
+                    .sortedBy { if (byX) x0[it] + x1[it] else y0[it] + y1[it] }
+            sorted.forEachIndexed { i, e -> order[from + i] = e }
+
+            val mid = (from + to) / 2
+
+            build(order, from, mid)
+
+            start[node] = numNodes
+            count[node] = 0
+
+            build(order, mid, to)
+        }
+
+        fun signedDistance(x: Double, y: Double, complement: Boolean): Double {
+            val d = distance(x, y, complement)
+
+            return if (isInside(x, y, complement, d)) -d else d
+        }
+
+        fun isInside(x: Double, y: Double, complement: Boolean): Boolean {
+            return isInside(x, y, complement, distance(x, y, complement))
+        }
+
+        fun distance(x: Double, y: Double) = distance(x, y, reversed = false)
+
+        private fun isInside(x: Double, y: Double, complement: Boolean, distance: Double): Boolean {
+            if (distance < 1e-6 && isOnBoundary(x, y))
+                return true
+
+            // the complement is the reversed ring, which has opposite area and winding number
+            val positive = if (complement) !isPositive else isPositive
+            val winding = if (complement) -winding(x, y) else winding(x, y)
+
+            return if (positive) winding == 1 else winding == 0
+        }
+
+        /**
+         * Same as the min distance to javaGeom line segments, including their tolerances.
+         * Segments of the reversed ring start at the other end, which gives slightly different rounding.
+         */
+        private fun distance(x: Double, y: Double, reversed: Boolean): Double {
+            if (size == 0)
+                return Double.MAX_VALUE
+
+            var best = Double.MAX_VALUE
+
+            val stack = IntArray(64)
+            var top = 0
+            stack[top++] = 0
+
+            while (top > 0) {
+                val node = stack[--top]
+
+                val bx = Math.max(Math.max(minX[node] - x, x - maxX[node]), 0.0)
+                val by = Math.max(Math.max(minY[node] - y, y - maxY[node]), 0.0)
+
+                // allow for rounding in the edge distance
+                if (bx * bx + by * by > best * best * (1 + 1e-9) + 1e-9)
+                    continue
+
+                if (count[node] > 0) {
+                    for (e in start[node] until start[node] + count[node]) {
+                        best = Math.min(best, if (reversed)
+                            segmentDistance(x1[e], y1[e], x0[e] - x1[e], y0[e] - y1[e], x, y)
+                        else
+                            segmentDistance(x0[e], y0[e], x1[e] - x0[e], y1[e] - y0[e], x, y))
+                    }
+                } else {
+                    stack[top++] = node + 1
+                    stack[top++] = start[node]
+                }
+            }
+
+            return best
+        }
+
+        /**
+         * As in javaGeom, a segment is a start point (sx, sy) and a direction (dx, dy).
+         */
+        private fun segmentDistance(sx: Double, sy: Double, dx: Double, dy: Double, x: Double, y: Double): Double {
+            if (segmentContains(sx, sy, dx, dy, x, y))
+                return 0.0
+
+            val t = positionOnLine(sx, sy, dx, dy, x, y)
+            val px = sx + t * dx
+            val py = sy + t * dy
+
+            if (segmentContains(sx, sy, dx, dy, px, py))
+                return Math.hypot(px - x, py - y)
+
+            return Math.min(Math.hypot(sx - x, sy - y), Math.hypot(sx + dx - x, sy + dy - y))
+        }
+
+        private fun segmentContains(sx: Double, sy: Double, dx: Double, dy: Double, x: Double, y: Double): Boolean {
+            if (Math.abs((x - sx) * dy - (y - sy) * dx) / Math.hypot(dx, dy) >= ACCURACY)
+                return false
+
+            val t = positionOnLine(sx, sy, dx, dy, x, y)
+
+            return t >= -ACCURACY && t - 1 <= ACCURACY
+        }
+
+        private fun positionOnLine(sx: Double, sy: Double, dx: Double, dy: Double, x: Double, y: Double): Double {
+            return ((y - sy) * dy + (x - sx) * dx) / (dx * dx + dy * dy)
+        }
+
+        private fun isOnBoundary(x: Double, y: Double): Boolean {
+            return (0 until size).any { segmentContains(x0[it], y0[it], x1[it] - x0[it], y1[it] - y0[it], x, y) }
+        }
+
+        /**
+         * Same as javaGeom winding number, only edges that straddle y and are not entirely to the left can count.
+         */
+        fun winding(x: Double, y: Double): Int {
+            if (size == 0)
+                return 0
+
+            var winding = 0
+
+            val stack = IntArray(64)
+            var top = 0
+            stack[top++] = 0
+
+            while (top > 0) {
+                val node = stack[--top]
+
+                if (minY[node] > y || maxY[node] <= y || maxX[node] < x)
+                    continue
+
+                if (count[node] > 0) {
+                    for (e in start[node] until start[node] + count[node]) {
+                        if (y0[e] <= y) {
+                            if (y1[e] > y && isLeft(e, x, y) > 0)
+                                winding++
+                        } else {
+                            if (y1[e] <= y && isLeft(e, x, y) < 0)
+                                winding--
+                        }
+                    }
+                } else {
+                    stack[top++] = node + 1
+                    stack[top++] = start[node]
+                }
+            }
+
+            return winding
+        }
+
+        private fun isLeft(e: Int, x: Double, y: Double): Int {
+            return Math.signum((x1[e] - x0[e]) * (y - y0[e]) - (x - x0[e]) * (y1[e] - y0[e])).toInt()
+        }
+    }
+}
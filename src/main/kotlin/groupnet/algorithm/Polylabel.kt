@@ -1,9 +1,7 @@
 package groupnet.algorithm
 
 import javafx.geometry.Point2D
-import math.geom2d.polygon.MultiPolygon2D
 import math.geom2d.polygon.Polygon2D
-import java.util.*
 
 /**
  * Adapted from https://github.com/mapbox/polylabel
@@ -14,36 +12,75 @@ import java.util.*
 class Polylabel {
 
     companion object {
-        val precision = 1.0
 
-        @JvmStatic fun findCenter(polygon: Polygon2D): Point2D {
+        /**
+         * Cells are not split further once they cannot improve the result
+         * by more than this fraction of the polygon size.
+         */
+        const val DEFAULT_PRECISION = 0.0005
 
-            // a priority queue of cells in order of their "potential" (max distance to polygon)
-            val cellQueue = PriorityQueue<Cell>(Comparator { a, b -> (b.max - a.max).toInt() })
+        private val SQRT2 = Math.sqrt(2.0)
 
+        @JvmStatic fun findCenter(polygon: Polygon2D): Point2D = findCenter(polygon, PolygonDistanceIndex(polygon))
+
+        /**
+         * Use when the distance [index] of [polygon] is already available, e.g. [groupnet.euler.Zone.distanceIndex].
+         */
+        @JvmStatic @JvmOverloads fun findCenter(polygon: Polygon2D, index: PolygonDistanceIndex, relativePrecision: Double = DEFAULT_PRECISION): Point2D {
             // find the bounding box of the outer ring
             val bbox = polygon.boundingBox()
 
-            val minX = bbox.minX
-            val minY = bbox.minY
-            val maxX = bbox.maxX
-            val maxY = bbox.maxY
+            val distance: (Double, Double) -> Double = if (index.isMultiPolygon) {
+
+                // lib returns minus if the point is inside the polygon
+                // Polylabel needs the other way around (negative if point is outside)
+                // however, we use the complement, i.e. the inner space of doughnut, so
+                // the point is inside the complement and returns minus but Polylabel is happy
+                // because the point is outside the polygon (in the doughnut hole)
+
+                { x, y -> index.complementSignedDistance(x, y) }
+
+            } else {
+
+                // signed distance from point to polygon outline (negative if point is outside)
+                { x, y -> -index.signedDistance(x, y) }
+            }
+
+            // take centroid as the first best guess
+            val centroid = polygon.centroid()
+
+            return findCenter(bbox.minX, bbox.minY, bbox.maxX, bbox.maxY, distance, centroid.x(), centroid.y(), relativePrecision)
+        }
 
-            var width = maxX - minX;
-            var height = maxY - minY;
-            var cellSize = Math.min(width, height);
-            var h = cellSize / 2;
+        /**
+         * Finds the point farthest inside a region that is only known by its signed [distance] to the boundary,
+         * positive inside, e.g. a zone of [groupnet.euler.CircleArrangement] without its polygon.
+         * The region must lie within the given bounds, ([guessX], [guessY]) is the first best guess.
+         */
+        @JvmStatic @JvmOverloads fun findCenter(minX: Double, minY: Double, maxX: Double, maxY: Double,
+                                                distance: (Double, Double) -> Double,
+                                                guessX: Double, guessY: Double,
+                                                relativePrecision: Double = DEFAULT_PRECISION): Point2D {
+            val width = maxX - minX
+            val height = maxY - minY
+            val cellSize = Math.min(width, height)
+            val h = cellSize / 2
 
             if (cellSize == 0.0)
                 return Point2D(minX, minY)
 
-            var x = minX
-            var y = minY
+            val precision = cellSize * relativePrecision
+
+            // cells in order of their "potential" (max distance to polygon)
+            val cells = CellHeap()
 
             // cover polygon with initial cells
+            var x = minX
             while (x < maxX) {
+                var y = minY
+
                 while (y < maxY) {
-                    cellQueue.add(Cell(x + h, y + h, h, polygon))
+                    cells.add(x + h, y + h, h, distance(x + h, y + h))
 
                     y += cellSize
                 }
@@ -51,84 +88,146 @@ class Polylabel {
                 x += cellSize
             }
 
-            // take centroid as the first best guess
-            val centroid = polygon.centroid()
-            var bestCell = Cell(centroid.x(), centroid.y(), 0.0, polygon)
+            var bestX = guessX
+            var bestY = guessY
+            var bestD = distance(bestX, bestY)
 
             // special case for rectangular polygons
-            val bboxCell = Cell(minX + width / 2, minY + height / 2, 0.0, polygon)
-
-            if (bboxCell.d > bestCell.d)
-                bestCell = bboxCell
+            val bboxD = distance(minX + width / 2, minY + height / 2)
 
-            var numProbes = cellQueue.size
+            if (bboxD > bestD) {
+                bestX = minX + width / 2
+                bestY = minY + height / 2
+                bestD = bboxD
+            }
 
-            while (cellQueue.isNotEmpty()) {
+            while (cells.isNotEmpty()) {
                 // pick the most promising cell from the queue
-                val cell = cellQueue.poll()
+                val cellX = cells.x[0]
+                val cellY = cells.y[0]
+                val cellH = cells.h[0]
+                val cellD = cells.d[0]
+                val cellMax = cells.max[0]
+
+                cells.removeFirst()
 
                 // update the best cell if we found a better one
-                if (cell.d > bestCell.d) {
-                    bestCell = cell;
+                if (cellD > bestD) {
+                    bestX = cellX
+                    bestY = cellY
+                    bestD = cellD
                 }
 
-                // do not drill down further if there's no chance of a better solution
-                if (cell.max - bestCell.d <= precision)
-                    continue;
+                // no other cell can do better either, since this one has the highest potential
+                if (cellMax - bestD <= precision)
+                    break
 
                 // split the cell into four cells
-                h = cell.h / 2;
-
-                cellQueue.add(Cell(cell.x - h, cell.y - h, h, polygon))
-                cellQueue.add(Cell(cell.x + h, cell.y - h, h, polygon))
-                cellQueue.add(Cell(cell.x - h, cell.y + h, h, polygon))
-                cellQueue.add(Cell(cell.x + h, cell.y + h, h, polygon))
+                val childH = cellH / 2
 
-                numProbes += 4;
+                cells.add(cellX - childH, cellY - childH, childH, distance(cellX - childH, cellY - childH))
+                cells.add(cellX + childH, cellY - childH, childH, distance(cellX + childH, cellY - childH))
+                cells.add(cellX - childH, cellY + childH, childH, distance(cellX - childH, cellY + childH))
+                cells.add(cellX + childH, cellY + childH, childH, distance(cellX + childH, cellY + childH))
             }
 
-            return Point2D(bestCell.x, bestCell.y)
+            return Point2D(bestX, bestY)
         }
     }
 
-    private object SQRT2 {
-        val value by lazy { Math.sqrt(2.0) }
-    }
+    /**
+     * Binary max heap of cells by their potential, stored in primitive arrays.
+     */
+    private class CellHeap {
+
+        var size = 0
 
-    private class Cell(
-            // cell center
-            val x: Double,
-            val y: Double,
+        // cell center
+        var x = DoubleArray(64)
+        var y = DoubleArray(64)
 
-            // half cell size
-            val h: Double,
-            val polygon: Polygon2D) {
+        // half cell size
+        var h = DoubleArray(64)
 
         // distance from cell center to polygon
-        val d: Double
+        var d = DoubleArray(64)
 
         // max distance to polygon within a cell
-        val max: Double
+        var max = DoubleArray(64)
 
-        init {
+        fun isNotEmpty() = size > 0
 
-            if (polygon is MultiPolygon2D) {
+        fun add(cellX: Double, cellY: Double, cellH: Double, cellD: Double) {
+            if (size == x.size) {
+                x = x.copyOf(size * 2)
+                y = y.copyOf(size * 2)
+                h = h.copyOf(size * 2)
+                d = d.copyOf(size * 2)
+                max = max.copyOf(size * 2)
+            }
 
-                // lib returns minus if the point is inside the polygon
-                // Polylabel needs the other way around (negative if point is outside)
-                // however, we use the complement, i.e. the inner space of doughnut, so
-                // the point is inside the complement and returns minus but Polylabel is happy
-                // because the point is outside the polygon (in the doughnut hole)
+            set(size, cellX, cellY, cellH, cellD, cellD + cellH * SQRT2)
 
-                d = polygon.complement().boundary().signedDistance(x, y)
+            var i = size++
 
-            } else {
+            while (i > 0) {
+                val parent = (i - 1) / 2
 
-                // signed distance from point to polygon outline (negative if point is outside)
-                d = -polygon.boundary().signedDistance(x, y)
+                if (max[parent] >= max[i])
+                    break
+
+                swap(i, parent)
+                i = parent
             }
+        }
+
+        fun removeFirst() {
+            size--
+
+            if (size == 0)
+                return
+
+            set(0, x[size], y[size], h[size], d[size], max[size])
+
+            var i = 0
+
+            while (true) {
+                val left = 2 * i + 1
+                val right = left + 1
+
+                var largest = i
+
+                if (left < size && max[left] > max[largest])
+                    largest = left
+
+                if (right < size && max[right] > max[largest])
+                    largest = right
+
+                if (largest == i)
+                    break
+
+                swap(i, largest)
+                i = largest
+            }
+        }
+
+        private fun set(i: Int, cellX: Double, cellY: Double, cellH: Double, cellD: Double, cellMax: Double) {
+            x[i] = cellX
+            y[i] = cellY
+            h[i] = cellH
+            d[i] = cellD
+            max[i] = cellMax
+        }
+
+        private fun swap(i: Int, j: Int) {
+            val cellX = x[i]
+            val cellY = y[i]
+            val cellH = h[i]
+            val cellD = d[i]
+            val cellMax = max[i]
 
-            max = d + h * SQRT2.value
+            set(i, x[j], y[j], h[j], d[j], max[j])
+            set(j, cellX, cellY, cellH, cellD, cellMax)
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,214 @@
+package groupnet.algorithm
+
+import groupnet.geometry.RTree
+import groupnet.util.CancellationToken
+import java.util.*
+
+/**
+ * Free space of a polygon decomposed into a quadtree, whose cells are only refined where they cross the boundary.
+ * Large cells cover open space and small cells follow the boundary, down to [minCellSize],
+ * so narrow parts of the polygon stay passable without a fine grid everywhere.
+ * A* then runs over the leaf cells.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class QuadtreePathfinder(
+
+        /**
+         * Distance index of the polygon, whose inside is free space.
+         */
+        private val index: PolygonDistanceIndex,
+
+        minX: Double, minY: Double, maxX: Double, maxY: Double,
+
+        private val minCellSize: Double,
+
+        private val token: CancellationToken = CancellationToken()) {
+
+    private companion object {
+        val SQRT2 = Math.sqrt(2.0)
+    }
+
+    // leaf cells
+    private var numCells = 0
+    private var centerX = DoubleArray(64)
+    private var centerY = DoubleArray(64)
+    private var halfSize = DoubleArray(64)
+
+    // distance from cell center to the boundary
+    private var clearance = DoubleArray(64)
+    private var walkable = BooleanArray(64)
+
+    private val cells: RTree
+
+    init {
+        val half = Math.max(maxX - minX, maxY - minY) / 2
+
+        val stack = ArrayDeque<DoubleArray>()
+        stack.push(doubleArrayOf((minX + maxX) / 2, (minY + maxY) / 2, half))
+
+        while (stack.isNotEmpty()) {
+            token.checkpoint()
+
+            val (x, y, h) = stack.pop()
+
+            val d = index.boundaryDistance(x, y)
+
+            // the boundary may cross the cell, unless it is farther than the cell corners
+            if (d < h * SQRT2 && 2 * h > minCellSize) {
+                val q = h / 2
+
+                stack.push(doubleArrayOf(x - q, y - q, q))
+                stack.push(doubleArrayOf(x + q, y - q, q))
+                stack.push(doubleArrayOf(x - q, y + q, q))
+                stack.push(doubleArrayOf(x + q, y + q, q))
+            } else {
+                addCell(x, y, h, d, index.containsEvenOdd(x, y))
+            }
+        }
+
+        cells = RTree(
+                DoubleArray(numCells) { centerX[it] - halfSize[it] },
+                DoubleArray(numCells) { centerY[it] - halfSize[it] },
+                DoubleArray(numCells) { centerX[it] + halfSize[it] },
+                DoubleArray(numCells) { centerY[it] + halfSize[it] }
+        )
+    }
+
+    val size: Int
+        get() = numCells
+
+    private fun addCell(x: Double, y: Double, h: Double, d: Double, isInside: Boolean) {
+        if (numCells == centerX.size) {
+            centerX = centerX.copyOf(numCells * 2)
+            centerY = centerY.copyOf(numCells * 2)
+            halfSize = halfSize.copyOf(numCells * 2)
+            clearance = clearance.copyOf(numCells * 2)
+            walkable = walkable.copyOf(numCells * 2)
+        }
+
+        centerX[numCells] = x
+        centerY[numCells] = y
+        halfSize[numCells] = h
+        clearance[numCells] = d
+        walkable[numCells] = isInside
+        numCells++
+    }
+
+    /**
+     * Moves are penalised near the boundary, up to [maxClearance] away from it.
+     * Cells of the start and target points are always passable.
+     *
+     * @return centers of cells between the start cell and the target cell as x, y pairs, or null if there is no path
+     */
+    fun findPath(startX: Double, startY: Double, targetX: Double, targetY: Double, maxClearance: Double): DoubleArray? {
+        val start = cellAt(startX, startY) ?: return null
+        val target = cellAt(targetX, targetY) ?: return null
+
+        if (start == target)
+            return DoubleArray(0)
+
+        val g = DoubleArray(numCells) { Double.POSITIVE_INFINITY }
+        val parent = IntArray(numCells) { -1 }
+        val closed = BooleanArray(numCells)
+
+        val open = PriorityQueue<Pair<Double, Int>>(compareBy { it.first })
+
+        g[start] = 0.0
+        open.add(heuristic(start, target) to start)
+
+        while (open.isNotEmpty()) {
+            token.checkpoint()
+
+            val current = open.poll().second
+
+            if (closed[current])
+                continue
+
+            if (current == target)
+                return buildPath(parent, start, target)
+
+            closed[current] = true
+
+            forEachNeighbour(current) { next ->
+                if (closed[next] || !walkable[next] && next != target)
+                    return@forEachNeighbour
+
+                val newG = g[current] + moveCost(current, next, maxClearance)
+
+                if (newG < g[next]) {
+                    g[next] = newG
+                    parent[next] = current
+                    open.add(newG + heuristic(next, target) to next)
+                }
+            }
+        }
+
+        return null
+    }
+
+    private fun cellAt(x: Double, y: Double): Int? {
+        var cell: Int? = null
+
+        cells.search(x, y, x, y) {
+            if (cell == null)
+                cell = it
+        }
+
+        return cell
+    }
+
+    /**
+     * Neighbours share part of a side, corners only are not enough.
+     */
+    private fun forEachNeighbour(cell: Int, visitor: (Int) -> Unit) {
+        val h = halfSize[cell]
+        val eps = minCellSize * 1e-6
+
+        cells.search(centerX[cell] - h - eps, centerY[cell] - h - eps, centerX[cell] + h + eps, centerY[cell] + h + eps) { other ->
+            if (other == cell)
+                return@search
+
+            val overlapX = h + halfSize[other] - Math.abs(centerX[cell] - centerX[other])
+            val overlapY = h + halfSize[other] - Math.abs(centerY[cell] - centerY[other])
+
+            if (overlapX > eps || overlapY > eps)
+                visitor(other)
+        }
+    }
+
+    private fun moveCost(from: Int, to: Int, maxClearance: Double): Double {
+        val distance = Math.hypot(centerX[to] - centerX[from], centerY[to] - centerY[from])
+
+        val closeness = if (maxClearance <= 0) 0.0 else 1 - Math.min(clearance[to], maxClearance) / maxClearance
+
+        return distance * (1 + BOUNDARY_PENALTY * closeness)
+    }
+
+    /**
+     * Straight line distance, a lower bound since every move costs at least its length.
+     */
+    private fun heuristic(from: Int, to: Int): Double {
+        return Math.hypot(centerX[to] - centerX[from], centerY[to] - centerY[from])
+    }
+
+    private fun buildPath(parent: IntArray, start: Int, target: Int): DoubleArray {
+        val path = arrayListOf<Int>()
+
+        var cell = parent[target]
+        while (cell != start) {
+            path.add(cell)
+            cell = parent[cell]
+        }
+
+        path.reverse()
+
+        val points = DoubleArray(path.size * 2)
+        path.forEachIndexed { i, c ->
+            points[2 * i] = centerX[c]
+            points[2 * i + 1] = centerY[c]
+        }
+
+        return points
+    }
+}
@@ -2,6 +2,7 @@ package groupnet.decomposition
 
 import groupnet.euler.*
 import groupnet.gn.GNDescription
+import groupnet.util.CancellationToken
 import groupnet.util.Tuple3
 import groupnet.util.partition2Lazy
 
@@ -20,39 +21,40 @@ fun isAtomic(D: Description): Boolean {
 /**
  * Decomposes [D] into its atomic components.
  */
-fun decA(D: Description): List<Description> {
+fun decA(D: Description, token: CancellationToken = CancellationToken()): List<Description> {
     if (L(D).size <= 1) {
         return listOf(D)
     }
 
-    canSplit(D)?.let { (D1, az1, D2) ->
+    canSplit(D, token)?.let { (D1, az1, D2) ->
 
         D1.parent = D.parent
         D2.parent = D.parent + az1
 
-        return decA(D1) + decA(D2)
+        return decA(D1, token) + decA(D2, token)
     }
 
     return listOf(D)
 }
 
-fun decTree(GND: GNDescription, treeArg: DecompositionTree? = null): DecompositionTree {
+fun decTree(GND: GNDescription, treeArg: DecompositionTree? = null, token: CancellationToken = CancellationToken()): DecompositionTree {
     val tree = if (treeArg != null) treeArg else DecompositionTree(GND)
 
-    canSplit(GND.description)?.let { (D1, az1, D2) ->
+    canSplit(GND.description, token)?.let { (D1, az1, D2) ->
         val (GND1, GND2) = GND.split(D1, az1, D2)
 
         tree.addChildren(GND1, GND2, GND)
 
-        decTree(GND1, tree)
-        decTree(GND2, tree)
+        decTree(GND1, tree, token)
+        decTree(GND2, tree, token)
     }
 
     return tree
 }
 
-private fun canSplit(D: Description): Tuple3<Description, AbstractZone, Description>? {
+private fun canSplit(D: Description, token: CancellationToken = CancellationToken()): Tuple3<Description, AbstractZone, Description>? {
     for ((L1, L2) in partition2Lazy(L(D))) {
+        token.checkpoint()
 
         val Z1 = Z(D).map { it - L2 }.toSet()
         val Z2 = Z(D).map { it - L1 }.toSet()
@@ -7,6 +7,7 @@ import groupnet.gn.GNDescription
 import groupnet.gn.minus
 import groupnet.graph.cycles.CycleFinder
 import groupnet.recomposition.RecompositionStep
+import groupnet.util.CancellationToken
 import groupnet.util.Log
 import groupnet.util.combinations2
 import groupnet.util.combinationsOf
@@ -30,26 +31,29 @@ interface DecompositionStrategy {
      * Returns which label to remove in the next step
      *
      * @param D the description
+     * @param token checked while searching, since it can be expensive
      * @return label to remove
      */
-    fun labelToRemove(D: Description): Label
+    fun labelToRemove(D: Description, token: CancellationToken): Label
 }
 
 /**
  * Decomposes [D] into a list of recomposition steps.
  */
-fun dec(D: Description) = decompose(D, ICURVES_DECOMPOSITION)
+fun dec(D: Description, token: CancellationToken = CancellationToken()) = decompose(D, ICURVES_DECOMPOSITION, token)
 
-fun dec(GND: GNDescription): List<RecompositionStep> {
-    return decompose(GND)
+fun dec(GND: GNDescription, token: CancellationToken = CancellationToken()): List<RecompositionStep> {
+    return decompose(GND, token)
 }
 
-private fun decompose(D: Description, strategy: DecompositionStrategy): List<RecompositionStep> {
+private fun decompose(D: Description, strategy: DecompositionStrategy, token: CancellationToken): List<RecompositionStep> {
     val result = arrayListOf<RecompositionStep>()
     var Di = D
 
     while (Di != D0) {
-        val removedLabel = strategy.labelToRemove(Di)
+        token.checkpoint()
+
+        val removedLabel = strategy.labelToRemove(Di, token)
 
         val step = makeStep(Di, removedLabel)
         result.add(step)
@@ -100,14 +104,14 @@ private val ICURVES_DECOMPOSITION = object : DecompositionStrategy {
     // 1. only remove non-disconnecting labels
     // 2. remove 2,3,4-zone labels that can make a potential piercing (single or double)
     // 3. remove based on lower bounds for extra zones, i.e. non-partners + count number of disconnected graphs
-    override fun labelToRemove(D: Description): Label {
+    override fun labelToRemove(D: Description, token: CancellationToken): Label {
         L(D).sortedDescending().sortedBy { D.getNumZonesIn(it) }.forEach {
             if (isDrawableAsCircle(it, D) && isNonDisconnecting(it, D)) {
                 return it
             }
         }
 
-        L(D).sortedBy { lowerBoundExtraZones(it, D) }.forEach {
+        L(D).sortedBy { lowerBoundExtraZones(it, D, token) }.forEach {
             if (isNonDisconnecting(it, D))
                 return it
         }
@@ -125,11 +129,11 @@ private val ICURVES_DECOMPOSITION = object : DecompositionStrategy {
         }
     }
 
-    private fun lowerBoundExtraZones(label: Label, D: Description): Int {
+    private fun lowerBoundExtraZones(label: Label, D: Description, token: CancellationToken): Int {
         val n = Z(D).filter { label in it }.count { it - label !in Z(D) }
 
         val IN = Z(D - label).filter { it + label in Z(D) }
-        val m = smallestSetSizeToFormCycle(IN, label, D)
+        val m = smallestSetSizeToFormCycle(IN, label, D, token)
 
         return n + m
     }
@@ -298,8 +302,8 @@ private fun canBeDoublePiercingFrom4(l: Label, D: Description): Boolean {
     return false
 }
 
-private fun smallestSetSizeToFormCycle(zones: List<AbstractZone>, label: Label, D: Description): Int {
-    val graph = CycleFinder<Vertex, Edge>(Edge::class.java)
+private fun smallestSetSizeToFormCycle(zones: List<AbstractZone>, label: Label, D: Description, token: CancellationToken): Int {
+    val graph = CycleFinder<Vertex, Edge>(Edge::class.java, token)
 
     val Z = combinationsOf(L(D) - label, 1 until L(D).size)
             .map { az(it.toSet()) } + azEmpty
@@ -351,13 +355,14 @@ private class ZoneEdge(val az1: AbstractZone, val az2: AbstractZone)
 
 // GND informed decomposition
 
-private fun decompose(GND: GNDescription): List<RecompositionStep> {
+private fun decompose(GND: GNDescription, token: CancellationToken): List<RecompositionStep> {
     var Di = GND.description
     var GNDi = GND
 
     val result = arrayListOf<RecompositionStep>()
 
     while (Di.labels.isNotEmpty()) {
+        token.checkpoint()
 
         val connections = GNDi.connectionsBetweenZones()
 
@@ -370,7 +375,7 @@ private fun decompose(GND: GNDescription): List<RecompositionStep> {
                 .maxBy { it.value }
 
         // use GND info, if not available, use ED info
-        val removedLabel = if (azPair == null) ICURVES_DECOMPOSITION.labelToRemove(Di) else removeLabel(azPair.key)
+        val removedLabel = if (azPair == null) ICURVES_DECOMPOSITION.labelToRemove(Di, token) else removeLabel(azPair.key)
 
         val step = makeStep(Di, removedLabel)
         step.connections = connections
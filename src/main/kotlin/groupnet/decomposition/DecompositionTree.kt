@@ -10,7 +10,7 @@ import javafx.scene.Parent
  */
 class DecompositionTree(root: GNDescription) {
 
-    private val root = TreeVertex(root, 0, false)
+    val root = TreeVertex(root, 0, false)
     private val vertices = mutableSetOf<TreeVertex>(this.root)
 
     fun addChildren(GND1: GNDescription, GND2: GNDescription, parent: GNDescription) {
@@ -49,5 +49,12 @@ class DecompositionTree(root: GNDescription) {
         val childrenMutable: MutableList<Node> get() = this.children
 
         val parent: TreeVertex get() = parentProperty().value as TreeVertex
+
+        /**
+         * Left child first, empty if this is a leaf.
+         */
+        val treeChildren: List<TreeVertex> get() = childrenUnmodifiable.map { it as TreeVertex }
+
+        fun isLeaf() = childrenUnmodifiable.isEmpty()
     }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package groupnet.diagram
+
+import groupnet.algorithm.clearRouteCache
+import groupnet.euler.Description
+import groupnet.euler.EulerDiagram
+import groupnet.gn.GNDescription
+import groupnet.gn.GNDiagram
+import groupnet.util.AnytimeToken
+import groupnet.util.CancellationToken
+import groupnet.util.CancelledException
+import groupnet.util.Degradation
+import groupnet.util.Log
+
+/**
+ * Generates diagrams one after another, each within its own time budget.
+ * A diagram that does not finish in time is abandoned and recorded as cancelled,
+ * so a single pathological input cannot stall the whole batch.
+ * A diagram whose generation throws any other exception is recorded as failed.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class BatchGenerator(
+        /**
+         * Time budget per diagram in millis, 0 means no budget.
+         */
+        private val budgetMillis: Long,
+
+        /**
+         * If true, a diagram that runs out of its budget is finished with
+         * rougher fallbacks instead of being abandoned.
+         */
+        private val anytime: Boolean = false) {
+
+    @Volatile private var currentToken = CancellationToken()
+
+    @Volatile private var cancelled = false
+
+    fun drawEulerDiagrams(descriptions: List<Pair<String, Description>>): List<BatchResult<EulerDiagram>> {
+        clearCaches()
+
+        return descriptions.map { (name, D) ->
+            generate(name) { EulerDiagramCreator(it).drawEulerDiagram(D) }
+        }
+    }
+
+    fun drawGroupedNetworkDiagrams(descriptions: List<Pair<String, GNDescription>>): List<BatchResult<GNDiagram>> {
+        clearCaches()
+
+        return descriptions.map { (name, GND) ->
+            generate(name) { GNDiagramCreator(it).drawGroupedNetworkDiagram(GND) }
+        }
+    }
+
+    /**
+     * Abandons the diagram being generated and all remaining ones.
+     */
+    fun cancel() {
+        cancelled = true
+        currentToken.cancel()
+    }
+
+    /**
+     * Each batch starts without routes cached by earlier batches, so batches do not hold on to each other's memory.
+     */
+    private fun clearCaches() {
+        clearRouteCache()
+    }
+
+    private fun <T> generate(name: String, generator: (CancellationToken) -> T): BatchResult<T> {
+        val token = when {
+            budgetMillis <= 0 -> CancellationToken()
+            anytime -> AnytimeToken(budgetMillis)
+            else -> CancellationToken.withTimeout(budgetMillis)
+        }
+
+        currentToken = token
+
+        if (cancelled)
+            token.cancel()
+
+        val startTime = System.nanoTime()
+
+        return try {
+            val diagram = generator(token)
+
+            BatchResult(name, diagram, null, System.nanoTime() - startTime, token.degradations)
+        } catch (e: Exception) {
+            Log.e(e)
+
+            BatchResult(name, null, e, System.nanoTime() - startTime, token.degradations)
+        }
+    }
+}
+
+class BatchResult<T>(val name: String,
+                     val diagram: T?,
+                     val error: Throwable?,
+                     val timeNanos: Long,
+
+                     /**
+                      * Fallbacks taken in the anytime mode.
+                      */
+                     val degradations: Set<Degradation>) {
+
+    fun isSuccess() = diagram != null
+
+    /**
+     * @return true if generation was abandoned because of cancellation or time budget
+     */
+    fun isCancelled() = error is CancelledException
+
+    override fun toString(): String {
+        val status = if (isSuccess()) "OK" else if (isCancelled()) "CANCELLED" else "FAILED"
+
+        val degraded = if (degradations.isEmpty()) "" else " degraded: $degradations"
+
+        return "%s: %s (%.3f sec)%s".format(name, status, timeNanos / 1000000000.0, degraded)
+    }
+}
@@ -30,7 +30,7 @@ fun drawGraphForAtomicComponent(GND: GNDescription, d: EulerDiagram): NetworkGra
 
     if (GND.nodes.size == 1) {
         val v = GND.nodes.first()
-        val z = (Z(d) + d.outsideZone).find { it.az == GND.aloc(v) }!!
+        val z = d.getZone(GND.aloc(v))
 
         val node = NetworkNode(v, z, z.visualCenter)
         return NetworkGraph(setOf(node), emptySet())
@@ -43,7 +43,7 @@ fun drawGraphForAtomicComponent(GND: GNDescription, d: EulerDiagram): NetworkGra
 
     GND.mapping.forEach { az, nodes ->
 
-        (Z(d) + d.outsideZone).find { it.az == az }!!.let { z ->
+        d.getZone(az).let { z ->
             nodes.forEach {
                 val p = z.visualCenter.add(random.nextDouble() * 20.0, random.nextDouble() * 20.0)
                 val v = NetworkNode(it, z, p)
@@ -65,7 +65,7 @@ fun drawGraphForAtomicComponent(GND: GNDescription, d: EulerDiagram): NetworkGra
     return NetworkGraph(V, E)
 }
 
-fun drawGraph(GND: GNDescription, d: EulerDiagram): NetworkGraph {
+fun drawGraph(GND: GNDescription, d: EulerDiagram, token: CancellationToken = CancellationToken()): NetworkGraph {
     Log.d("Drawing network from ${GND.graph}")
 
     Profiler.start("Drawing network")
@@ -75,7 +75,7 @@ fun drawGraph(GND: GNDescription, d: EulerDiagram): NetworkGraph {
 
     if (GND.nodes.size == 1) {
         val v = GND.nodes.first()
-        val z = (Z(d) + d.outsideZone).find { it.az == GND.aloc(v) }!!
+        val z = d.getZone(GND.aloc(v))
 
         val node = NetworkNode(v, z, z.visualCenter)
         return NetworkGraph(setOf(node), emptySet())
@@ -88,7 +88,7 @@ fun drawGraph(GND: GNDescription, d: EulerDiagram): NetworkGraph {
 
     GND.mapping.forEach { az, nodes ->
 
-        (Z(d) + d.outsideZone).find { it.az == az }!!.let { z ->
+        d.getZone(az).let { z ->
             nodes.forEach {
                 val p = z.visualCenter.add(random.nextDouble() * 20.0, random.nextDouble() * 20.0)
                 val v = NetworkNode(it, z, p)
@@ -116,6 +116,8 @@ fun drawGraph(GND: GNDescription, d: EulerDiagram): NetworkGraph {
     p.criterion = 15.0
     p.coolingRate = 0.01
     p.frameDelay = 5
+    p.token = token
+    p.spatialIndex = d.spatialIndex
 
     val graph = NetworkGraph(V, E)
 
@@ -130,7 +132,7 @@ fun drawGraph(GND: GNDescription, d: EulerDiagram): NetworkGraph {
     return graph
 }
 
-fun layoutGraph(graph: NetworkGraph) {
+fun layoutGraph(graph: NetworkGraph, token: CancellationToken = CancellationToken()) {
     val p = Parameter()
     p.frameWidth = 1000
     p.frameHeight = 1000
@@ -138,6 +140,7 @@ fun layoutGraph(graph: NetworkGraph) {
     p.criterion = 15.0
     p.coolingRate = 0.01
     p.frameDelay = 5
+    p.token = token
 
     p.attractiveForce = { d, k -> d / k }
     p.repulsiveForce = { d, k -> k * k / d }
@@ -159,6 +162,11 @@ class Simulation(private val graph: NetworkGraph, private val p: Parameter) {
     companion object {
 
         private const val C = 0.4
+
+        /**
+         * Iterations always run, even when the anytime mode stops the layout early.
+         */
+        private const val MIN_ITERATIONS = 10
     }
 
     private val frameWidth: Int
@@ -201,6 +209,9 @@ class Simulation(private val graph: NetworkGraph, private val p: Parameter) {
             // simulate until mechanical equilibrium
             while (!equilibriumReached && iteration < 250) {
                 simulateStep()
+
+                if (shouldStopEarly())
+                    break
             }
         } else {
             // simulate iterations-steps
@@ -208,14 +219,21 @@ class Simulation(private val graph: NetworkGraph, private val p: Parameter) {
             while (i < criterion) {
                 simulateStep()
                 i++
+
+                if (shouldStopEarly())
+                    break
             }
         }
     }
 
+    private fun shouldStopEarly() = iteration >= MIN_ITERATIONS && p.token.degrade(Degradation.EARLY_LAYOUT_STOP)
+
     /**
      * Simulates a single step.
      */
     private fun simulateStep() {
+        p.token.checkpoint()
+
         // calculate repulsive forces (from every vertex to every other)
         for (v in graph.nodes) {
             // reset displacement vector for new calculation
@@ -299,7 +317,7 @@ class Simulation(private val graph: NetworkGraph, private val p: Parameter) {
             v.applyVelocity(disp)
 
             // undo if invalid placement
-            if (v.isGNDBased() && !v.hasValidPlacement()) {
+            if (v.isGNDBased() && !v.hasValidPlacement(p.spatialIndex!!)) {
                 v.applyVelocity(disp.multiply(-1.0))
             }
         }
@@ -386,7 +404,8 @@ class Simulation(private val graph: NetworkGraph, private val p: Parameter) {
 
     private fun applyZoneForcesEdges(v: NetworkNode) {
         val polygon = v.z!!.polygonShape
-        val dist = abs(polygon.boundary().signedDistance(v.x, v.y))
+        val index = v.z!!.distanceIndex
+        val dist = abs(index.signedDistance(v.x, v.y))
 
         if (dist > 1000)
             return
@@ -409,8 +428,8 @@ class Simulation(private val graph: NetworkGraph, private val p: Parameter) {
                     if (polygon is MultiPolygon2D) {
 
                         // check signed distance and also of the complement
-                        val dist1 = Math.abs(polygon.boundary().signedDistance(testPt.x, testPt.y))
-                        val dist2 = Math.abs(polygon.complement().boundary().signedDistance(testPt.x, testPt.y))
+                        val dist1 = Math.abs(index.signedDistance(testPt.x, testPt.y))
+                        val dist2 = Math.abs(index.complementSignedDistance(testPt.x, testPt.y))
 
                         if (Math.min(dist1, dist2) > 0) {
                             normal = normal.multiply(-1.0)
@@ -418,7 +437,7 @@ class Simulation(private val graph: NetworkGraph, private val p: Parameter) {
                     } else {
 
                         // if test point lies outside of polygon then invert the normal
-                        if (polygon.boundary().signedDistance(testPt.x, testPt.y) > 0) {
+                        if (index.signedDistance(testPt.x, testPt.y) > 0) {
                             normal = normal.multiply(-1.0)
                         }
                     }
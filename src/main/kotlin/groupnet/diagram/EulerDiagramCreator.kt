@@ -1,6 +1,7 @@
 package groupnet.diagram
 
 import groupnet.algorithm.BezierApproximation
+import groupnet.algorithm.LabelPlacement
 import groupnet.decomposition.dec
 import groupnet.decomposition.decA
 import groupnet.euler.*
@@ -8,30 +9,49 @@ import groupnet.euler.curves.CircleCurve
 import groupnet.euler.curves.PathCurve
 import groupnet.euler.dual.MED
 import groupnet.euler.dual.MEDCycle
+import groupnet.geometry.Simplification
 import groupnet.recomposition.PiercingData
 import groupnet.recomposition.RecompositionStep
 import groupnet.util.Bug
+import groupnet.util.CancellationToken
+import groupnet.util.Degradation
 import groupnet.util.Log
 import groupnet.util.Profiler
+import groupnet.util.async
+import groupnet.util.await
+import groupnet.util.combinations2
 import javafx.geometry.Point2D
 import javafx.scene.paint.Color
 import javafx.scene.shape.ClosePath
+import javafx.scene.shape.LineTo
 import javafx.scene.shape.MoveTo
 import javafx.scene.shape.Path
-import java.util.stream.Stream
+import java.util.concurrent.CompletableFuture
 
 /**
+ *
+ * @param token checked between steps of the pipeline, so that the drawing can be abandoned
+ * @param simplification tolerance to simplify zone polygons with, shared by all diagrams of this run
  *
  * @author Almas Baimagambetov (almaslvl@gmail.com)
  */
-class EulerDiagramCreator {
+class EulerDiagramCreator
+private constructor(private val token: CancellationToken,
+
+                    private val simplification: Simplification,
+
+                    /**
+                     * Shared with the creators of components, read only while they draw.
+                     */
+                    private val zoneScores: MutableMap<AbstractZone, Int>) {
+
+    @JvmOverloads constructor(token: CancellationToken = CancellationToken(),
+                              simplification: Simplification = Simplification()) : this(token, simplification, hashMapOf())
 
     companion object {
         @JvmField val BASE_RADIUS = 1500.0
 
         val RADIUS_REDUCTION = 2.0
-
-        private val zoneScores = hashMapOf<AbstractZone, Int>()
     }
 
     /**
@@ -39,10 +59,15 @@ class EulerDiagramCreator {
      */
     private val abstractZones = mutableSetOf<AbstractZone>()
 
+    /**
+     * MED of the last step that needed one, patched for the next such step.
+     */
+    private var modifiedDual: MED? = null
+
     /**
      * The diagram we generated so far.
      */
-    private var d: EulerDiagram = EulerDiagram(D0, D0, emptySet())
+    private var d: EulerDiagram = EulerDiagram(D0, D0, emptySet(), simplification = simplification)
 
     fun drawEulerDiagram(D0: Description): EulerDiagram {
         zoneScores.clear()
@@ -51,11 +76,14 @@ class EulerDiagramCreator {
 
 
 
-        val components = decA(D)
+        val components = decA(D, token)
 
         // D is atomic
         if (components.size == 1) {
-            return drawAtomicDiagram(D, dec(D).reversed())
+            val result = drawAtomicDiagram(D, dec(D, token).reversed())
+            result.props["degradations"] = token.degradations
+            logSimplification()
+            return result
         }
 
         // compute zone scores
@@ -63,15 +91,34 @@ class EulerDiagramCreator {
                 .onEach { zoneScores[it.parent] = 0 }
                 .forEach { zoneScores[it.parent] = zoneScores[it.parent]!! + 1 + it.labels.size }
 
-        val diagrams = components.map { EulerDiagramCreator().drawAtomicDiagram(it, dec(it).reversed()) }
+        // components are drawn in parallel, each one is drawn into the diagram
+        // as soon as it and all components before it are ready, so the order is kept
+        val diagrams = components.map {
+            async { EulerDiagramCreator(token, simplification, zoneScores).drawAtomicDiagram(it, dec(it, token).reversed()) }
+        }
 
         val initial = diagrams[0]
 
-        return diagrams.drop(1).fold(initial, { d1, d2 ->
-            val az = d2.originalDescription.parent
-            val score = getScore(az)
-            d1.drawIntoZone(az, d2, score)
-        })
+        val result = diagrams.drop(1).fold(initial, { d1, d2 ->
+            d1.thenCombine(d2) { diagram1, diagram2 ->
+                token.checkpoint()
+
+                val az = diagram2.originalDescription.parent
+                val score = getScore(az)
+                diagram1.drawIntoZone(az, diagram2, score)
+            }
+        }).await()
+
+        result.props["degradations"] = token.degradations
+
+        logSimplification()
+
+        return result
+    }
+
+    private fun logSimplification() {
+        Log.i("Zone polygon vertices of this run, before and after simplification: " +
+                "${simplification.verticesBefore()} -> ${simplification.verticesAfter()}")
     }
 
     private fun getScore(az: AbstractZone): Int {
@@ -83,12 +130,17 @@ class EulerDiagramCreator {
     // val steps = dec.steps
     internal fun drawAtomicDiagram(D: Description, steps: List<RecompositionStep>): EulerDiagram {
         steps.forEach { data ->
+            token.checkpoint()
+
             val curve = drawCurve(data)
-            d = EulerDiagram(D, D(abstractZones + azEmpty, D.parent), d.curves + curve)
+            d = EulerDiagram(D, D(abstractZones + azEmpty, D.parent), d.curves + curve, simplification = simplification)
         }
 
         updateLabelPositions()
 
+        // components are drawn on their own too, so they record fallbacks taken while drawing them
+        d.props["degradations"] = token.degradations
+
         Log.d("drawAtomicDiagram() done: $abstractZones", d)
 
         return d
@@ -121,12 +173,19 @@ class EulerDiagramCreator {
 
         }
 
+        if (curve == null && token.shouldDegrade(Degradation.CIRCLES_ONLY)) {
+            tryDrawCircleOnly(data)?.let { (circle, zones) ->
+                abstractZones.addAll(zones.map { it.az + data.newLabel })
+                return circle
+            }
+        }
+
         if (curve != null) {
             abstractZones.addAll(data.splitZones.map { it + data.newLabel })
         } else {
             Profiler.start("Creating MED")
 
-            val modifiedDual = MED(d)
+            var modifiedDual = this.modifiedDual?.next(d) ?: MED(d, token)
 
             Profiler.end("Creating MED")
 
@@ -143,7 +202,19 @@ class EulerDiagramCreator {
                         ?.key
             }
 
-            val cycle = modifiedDual.computeCycle(data.splitZones, azPair) ?: throw Bug("Failed to find cycle")
+            var cycle = modifiedDual.computeCycle(data.splitZones, azPair)
+
+            if (cycle == null && !modifiedDual.isComplete) {
+                Log.d("No cycle in MED with straight edges only, routing all edges")
+
+                modifiedDual = MED(d, token, allowDegradation = false)
+                cycle = modifiedDual.computeCycle(data.splitZones, azPair)
+            }
+
+            if (cycle == null)
+                throw Bug("Failed to find cycle")
+
+            this.modifiedDual = modifiedDual
 
             Log.d("Adding ${data.newLabel} using cycle $cycle")
 
@@ -153,7 +224,7 @@ class EulerDiagramCreator {
             // here a 2node or 3node cycle was upgraded to 4node
                 4 -> drawDoublePiercing(data.newLabel, cycle.nodesUnique().map { it.zone })
 
-                else -> PathCurve(data.newLabel, smooth(cycle))
+                else -> PathCurve(data.newLabel, if (token.degrade(Degradation.NO_SMOOTHING)) toPath(cycle) else smooth(cycle))
             }
 
             // we might've used more zones to get a cycle, so we make sure we capture all of the used ones
@@ -166,7 +237,7 @@ class EulerDiagramCreator {
 
     private fun tryDrawSinglePiercing(data: RecompositionStep): Curve? {
         // we include outsideZone in case
-        val piercingData = PiercingData(2, data.splitZones.map { d.getZone(it) }, d.zones.plus(d.outsideZone).toList())
+        val piercingData = PiercingData(2, data.splitZones.map { d.getZone(it) }, d.zones.plus(d.outsideZone).toList(), d.vertexIndex)
         if (!piercingData.isPiercing())
             return null
 
@@ -189,7 +260,7 @@ class EulerDiagramCreator {
 
         return if (numCurvesSoFar() == 1) {
 
-            val center = curveBeingPierced.getPolygon().centroid()
+            val center = curveBeingPierced.geometry.polygon.centroid()
             val vectorToCenter = Point2D(center.x(), center.y())
                     .subtract(Point2D(BASE_RADIUS * 2, BASE_RADIUS))
                     .normalize()
@@ -221,7 +292,7 @@ class EulerDiagramCreator {
             //CircleCurve(data.addedCurve, BASE_RADIUS * 2, BASE_RADIUS, BASE_RADIUS)
         } else {
 
-            val center = curveBeingPierced.getPolygon().centroid()
+            val center = curveBeingPierced.geometry.polygon.centroid()
             val vectorToCenter = Point2D(center.x(), center.y())
                     .subtract(Point2D(piercingData.center!!.x, piercingData.center.y))
                     .normalize()
@@ -262,7 +333,7 @@ class EulerDiagramCreator {
 
     private fun tryDrawDoublePiercing(data: RecompositionStep): Curve? {
         // we don't include outsideZone because there are other zones that bound
-        val piercingData = PiercingData(4, data.splitZones.map { d.getZone(it) }, d.zones.toList())
+        val piercingData = PiercingData(4, data.splitZones.map { d.getZone(it) }, d.zones.toList(), d.vertexIndex)
         if (!piercingData.isPiercing())
             return null
 
@@ -275,7 +346,7 @@ class EulerDiagramCreator {
     }
 
     private fun drawSinglePiercing(abstractCurve: Label, regions: List<Zone>): Curve {
-        val piercingData = PiercingData(2, regions, d.zones.plus(d.outsideZone).toList())
+        val piercingData = PiercingData(2, regions, d.zones.plus(d.outsideZone).toList(), d.vertexIndex)
 
         if (!piercingData.isPiercing()) {
             throw Bug("not 1-piercing")
@@ -285,7 +356,7 @@ class EulerDiagramCreator {
     }
 
     private fun drawDoublePiercing(abstractCurve: Label, regions: List<Zone>): Curve {
-        val piercingData = PiercingData(4, regions, d.zones.toList())
+        val piercingData = PiercingData(4, regions, d.zones.toList(), d.vertexIndex)
 
         if (!piercingData.isPiercing()) {
             throw Bug("not 2-piercing")
@@ -294,6 +365,66 @@ class EulerDiagramCreator {
         return CircleCurve(abstractCurve, piercingData.center!!.x, piercingData.center.y, piercingData.radius / RADIUS_REDUCTION)
     }
 
+    /**
+     * Anytime fallback: tries to draw the curve as a circle around a point where 4 zones meet,
+     * splitting 1 or 2 extra zones, so that MED does not need to be built.
+     * The fallback is recorded as soon as such a circle is accepted.
+     *
+     * @return the circle and the zones it splits
+     */
+    private fun tryDrawCircleOnly(data: RecompositionStep): Pair<Curve, List<Zone>>? {
+        // 4 zones were already tried as a double piercing
+        if (data.splitZones.size != 2 && data.splitZones.size != 3)
+            return null
+
+        val allZones = d.zones.plus(d.outsideZone).toList()
+        val cluster = data.splitZones.map { d.getZone(it) }
+
+        val candidates = allZones.minus(cluster).filter { z -> cluster.any { it.az.isNeighbour(z.az) } }
+
+        val extraZones = if (cluster.size == 3)
+            candidates.map { listOf(it) }
+        else
+            combinations2(candidates).map { listOf(it.first, it.second) }
+
+        for (extra in extraZones) {
+            token.checkpoint()
+
+            val zones = cluster + extra
+
+            val piercingData = PiercingData(4, zones, allZones, d.vertexIndex)
+            if (piercingData.isPiercing()) {
+                Log.d("Circle ${data.newLabel} also splits $extra")
+
+                token.degraded(Degradation.CIRCLES_ONLY)
+
+                return CircleCurve(data.newLabel, piercingData.center!!.x, piercingData.center.y, piercingData.radius / RADIUS_REDUCTION) to zones
+            }
+        }
+
+        return null
+    }
+
+    /**
+     * @return closed path through the raw cycle polygon
+     */
+    private fun toPath(cycle: MEDCycle): Path {
+        val newPath = Path()
+
+        val firstPt = cycle.polygon[0]
+
+        newPath.elements.add(MoveTo(firstPt.x, firstPt.y))
+
+        cycle.polygon.drop(1).forEach {
+            newPath.elements.add(LineTo(it.x, it.y))
+        }
+
+        newPath.fill = Color.TRANSPARENT
+        newPath.elements.add(ClosePath())
+
+        return newPath
+    }
+
     private fun smooth(cycle: MEDCycle): Path {
         Profiler.start("Smoothing")
 
@@ -324,59 +455,8 @@ class EulerDiagramCreator {
     private fun updateLabelPositions() {
         Profiler.start("Compute labels")
 
-        Stream.of(*C(d).toTypedArray())
-                .parallel()
-                .forEach { updateLabelPosition(it) }
+        LabelPlacement(d).placeLabels()
 
         Profiler.end("Compute labels")
     }
-
-    private fun updateLabelPosition(curve: Curve) {
-        val otherCurves = C(d).minus(curve)
-        val polygon = curve.cachedPolygon
-        val center = polygon.centroid()
-
-        val labelPos = polygon.vertices()
-                .map { Point2D(it.x(), it.y()) }
-                .map {
-                    val magnitude = capMagnitude(if (curve is CircleCurve) curve.radius / 3 else 150.0)
-
-                    val r = if (curve is CircleCurve) curve.radius else 0.0
-
-                    // compute vector outwards
-                    it.add(it.subtract(center.x(), center.y()).normalize().multiply(magnitude))
-                }
-                .sortedBy {
-                    val minDistance = minDistanceToOtherCurves(it, otherCurves)
-                    val numCurves = numCurvesThatContainPoint(it, otherCurves)
-
-                    // number of curves has a more significant impact
-                    2000 * numCurves - minDistance
-                }
-                .first()!!
-
-        curve.setLabelPositionX(labelPos.x)
-        curve.setLabelPositionY(labelPos.y)
-    }
-
-    private fun capMagnitude(mag: Double): Double {
-        if (mag > 300)
-            return 300.0
-
-        if (mag < 150)
-            return 150.0
-
-        return mag
-    }
-
-    private fun numCurvesThatContainPoint(point: Point2D, curves: Set<Curve>) = curves.count { it.cachedShape.contains(point) }
-
-    private fun minDistanceToOtherCurves(point: Point2D, curves: Set<Curve>): Double {
-        return curves.map { it.cachedPolygon.boundary().signedDistance(point.x, point.y) }
-                // -20 is threshold on how "close" we think it is
-                // because of polygon <-> smooth representations we might lose precision
-                .filter { it >= -20 }
-                .min()
-                ?: 0.0
-    }
 }
\ No newline at end of file
@@ -2,8 +2,11 @@ package groupnet.diagram
 
 import groupnet.algorithm.Polylabel
 import groupnet.decomposition.dec
+import groupnet.decomposition.DecompositionTree.TreeVertex
 import groupnet.decomposition.decTree
 import groupnet.euler.*
+import groupnet.geometry.FixedPolygon
+import groupnet.geometry.PolygonClipper
 import groupnet.gn.GNDescription
 import groupnet.gn.GNDiagram
 import groupnet.gui.SettingsController
@@ -11,22 +14,28 @@ import groupnet.gui.SettingsController.*
 import groupnet.network.NetworkEdge
 import groupnet.network.NetworkGraph
 import groupnet.network.NetworkNode
+import groupnet.util.CancellationToken
 import groupnet.util.Log
+import groupnet.util.async
+import groupnet.util.await
 import groupnet.util.combinations2
 import groupnet.util.negate
 import javafx.geometry.Point2D
 import math.geom2d.polygon.Polygons2D
+import java.util.concurrent.CompletableFuture
 
 /**
+ *
+ * @param token checked between steps of the pipeline, so that the drawing can be abandoned
  *
  * @author Almas Baimagambetov (almaslvl@gmail.com)
  */
-class GNDiagramCreator {
+class GNDiagramCreator(private val token: CancellationToken = CancellationToken()) {
 
     fun drawGroupedNetworkDiagram(GND: GNDescription): GNDiagram {
         Log.i("Creating gnd from $GND")
 
-        val tree = decTree(GND)
+        val tree = decTree(GND, token = token)
         val gnd: GNDiagram
 
         Log.i("DecTree: ", tree)
@@ -34,29 +43,14 @@ class GNDiagramCreator {
         if (tree.vertices().size == 1) {
             gnd = createAtomicDiagram(GND)
         } else {
-            val drawings = mutableMapOf<GNDescription, GNDiagram>()
-
-            tree.leaves().forEach {
-                drawings[it] = createAtomicDiagram(it, single = false)
-            }
-
-            tree.siblings().sortedByDescending { it.first.depth }.forEach { (v1, v2) ->
-                val GND1 = v1.value
-                val GND2 = v2.value
-                val gnd1 = drawings[GND1]!!
-                val gnd2 = drawings[GND2]!!
-
-                drawings[v1.parent.value] = gnd1.embedIntoZone(D(GND2).parent, gnd2)
-            }
-
             // here we know we have more than 1 component, so reposition
-            gnd = repositionDisjointComponents(drawings[GND]!!)
+            gnd = repositionDisjointComponents(draw(tree.root).await())
         }
 
         // reposition the curves of disjoint components here
 
         // draw the _entire_ graph
-        val new_g = drawGraph(GND, gnd.d)
+        val new_g = drawGraph(GND, gnd.d, token)
 
         // add edges between disjoint components
         val E = arrayListOf<NetworkEdge>()
@@ -77,16 +71,38 @@ class GNDiagramCreator {
 
         val result = GNDiagram(gnd.GND, gnd.d, newGraph)
         resolveNetworkDiagram(result)
+
+        result.d.props["degradations"] = token.degradations
+
         return result
     }
 
+    /**
+     * Leaves are drawn in parallel, each pair of siblings is embedded into
+     * their parent as soon as both of them are drawn, so children are always
+     * merged before their parent, as in the order of decreasing depth.
+     */
+    private fun draw(v: TreeVertex): CompletableFuture<GNDiagram> {
+        if (v.isLeaf()) {
+            return async { createAtomicDiagram(v.value, single = false) }
+        }
+
+        val (v1, v2) = v.treeChildren
+
+        return draw(v1).thenCombine(draw(v2)) { gnd1, gnd2 ->
+            token.checkpoint()
+
+            gnd1.embedIntoZone(D(v2.value).parent, gnd2)
+        }
+    }
+
     private fun createAtomicDiagram(GND: GNDescription, single: Boolean = true): GNDiagram {
         val D = GND.description
-        val steps = dec(GND)
+        val steps = dec(GND, token)
 
-        val d = EulerDiagramCreator().drawAtomicDiagram(D, steps)
+        val d = EulerDiagramCreator(token).drawAtomicDiagram(D, steps)
 
-        val graph = if (single) drawGraph(GND, d) else drawGraphForAtomicComponent(GND, d)
+        val graph = if (single) drawGraph(GND, d, token) else drawGraphForAtomicComponent(GND, d)
 
         return GNDiagram(GND, d, graph)
     }
@@ -135,7 +151,7 @@ class GNDiagramCreator {
         val graph = NetworkGraph(nodes, edges)
 
 
-        layoutGraph(graph)
+        layoutGraph(graph, token)
 
 
 
@@ -157,7 +173,7 @@ class GNDiagramCreator {
         }
 
 
-        val newED = EulerDiagram(gnd.d.originalDescription, gnd.d.actualDescription, newCurves)
+        val newED = EulerDiagram(gnd.d.originalDescription, gnd.d.actualDescription, newCurves, simplification = gnd.d.simplification)
 
         return GNDiagram(gnd.GND, newED, gnd.g)
     }
@@ -166,6 +182,8 @@ class GNDiagramCreator {
      * Attempt to resolve any node-node crossings and any edge-node crossings.
      */
     private fun resolveNetworkDiagram(gnd: GNDiagram) {
+        val index = gnd.d.spatialIndex
+
         V(gnd.g).forEach { v ->
             E(gnd.g).forEach { e ->
                 if (!v.isIncidentWith(e)) {
@@ -176,11 +194,11 @@ class GNDiagramCreator {
 
                         v.applyVelocity(vectorToAdd)
 
-                        if (!v.hasValidPlacement()) {
+                        if (!v.hasValidPlacement(index)) {
                             v.applyVelocity(vectorToAdd.negate())
                             v.applyVelocity(vectorToAdd.negate())
 
-                            if (!v.hasValidPlacement()) {
+                            if (!v.hasValidPlacement(index)) {
                                 v.applyVelocity(vectorToAdd)
                             }
                         }
@@ -193,13 +211,13 @@ class GNDiagramCreator {
             if (v1.crossesNode(v2)) {
                 val nodesInZone = V(gnd.g).filter { it.z === v1.z } - v1
 
-                var zonePolygon = v1.z!!.polygonShape
+                var zonePolygon = FixedPolygon.of(v1.z!!.polygonShape)
 
                 nodesInZone.forEach {
-                    zonePolygon = Polygons2D.difference(zonePolygon, Polygons2D.createRectangle(it.x - (NODE_SIZE + 10), it.y - (NODE_SIZE + 10), it.x + (NODE_SIZE + 10), it.y + (NODE_SIZE + 10)))
+                    zonePolygon = PolygonClipper.difference(zonePolygon, FixedPolygon.of(Polygons2D.createRectangle(it.x - (NODE_SIZE + 10), it.y - (NODE_SIZE + 10), it.x + (NODE_SIZE + 10), it.y + (NODE_SIZE + 10))))
                 }
 
-                val safePoint = Polylabel.findCenter(zonePolygon)
+                val safePoint = Polylabel.findCenter(zonePolygon.toPolygon2D())
 
                 v1.pos = safePoint
             }
@@ -0,0 +1,214 @@
+package groupnet.diagram
+
+import groupnet.euler.*
+import groupnet.euler.curves.CircleCurve
+import groupnet.gn.GNDescription
+import groupnet.gn.GNDiagram
+import groupnet.gui.SettingsController.NODE_SIZE
+import groupnet.network.NetworkEdge
+import groupnet.network.NetworkGraph
+import groupnet.network.NetworkNode
+import groupnet.network.Parameter
+import groupnet.util.Profiler
+import groupnet.util.combinations2
+import javafx.geometry.Point2D
+
+/**
+ * Draws a coarse preview of a diagram in a few milliseconds, so that it can be shown
+ * while the full quality diagram is being generated.
+ * Each label is a circle, placed in label order and then adjusted by a few iterations
+ * so that pairs of circles overlap, nest or are disjoint as in the description.
+ * The preview is not guaranteed to be well-formed or to have exactly the described zones.
+ * There is no MED, no smoothing and no label optimisation.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class PreviewDiagramCreator {
+
+    companion object {
+        private const val ITERATIONS = 30
+        private const val GRAPH_ITERATIONS = 5
+
+        private val BASE_RADIUS = EulerDiagramCreator.BASE_RADIUS
+        private val MARGIN = BASE_RADIUS / 10
+    }
+
+    private enum class Relation {
+        OVERLAP, DISJOINT, FIRST_INSIDE, SECOND_INSIDE
+    }
+
+    private val centers = hashMapOf<Label, Point2D>()
+    private val radii = hashMapOf<Label, Double>()
+
+    fun drawEulerDiagram(D: Description): EulerDiagram {
+        Profiler.start("Drawing preview")
+
+        val labels = L(D).sortedDescending().sortedByDescending { D.getNumZonesIn(it) }
+
+        val relations = combinations2(labels).associate { it to relation(D, it.first, it.second) }
+
+        computeRadii(D, labels, relations)
+
+        labels.forEachIndexed { index, label -> place(index, label, relations) }
+
+        repeat(ITERATIONS) {
+            relations.forEach { (pair, relation) -> adjust(pair.first, pair.second, relation) }
+        }
+
+        val curves = labels.map {
+            val center = centers[it]!!
+            val r = radii[it]!!
+
+            val curve = CircleCurve(it, center.x, center.y, r)
+
+            // no label optimisation, just the top right of the circle
+            curve.setLabelPositionX(center.x + r * 0.75)
+            curve.setLabelPositionY(center.y - r * 0.75)
+
+            curve
+        }
+
+        Profiler.end("Drawing preview")
+
+        return EulerDiagram(D, D, curves.toSet())
+    }
+
+    fun drawGroupedNetworkDiagram(GND: GNDescription): GNDiagram {
+        val d = drawEulerDiagram(GND.description)
+
+        val maxX = centers.keys.map { centers[it]!!.x + radii[it]!! }.max() ?: 0.0
+
+        val V = GND.mapping.flatMap { (az, nodes) ->
+            val center = if (az == azEmpty) Point2D(maxX + BASE_RADIUS, 0.0) else zoneCenter(az)
+
+            nodes.mapIndexed { index, node ->
+                val angle = Math.toRadians(360.0 * index / nodes.size)
+                val offset = if (nodes.size == 1) 0.0 else NODE_SIZE * 3
+
+                // the nodes are not zone based, so that layout does not need the zone polygons
+                NetworkNode(node, null, center.add(Math.cos(angle) * offset, Math.sin(angle) * offset))
+            }
+        }
+
+        val E = GND.edges.mapNotNull { e ->
+            val v1 = V.find { it.label == e.first }
+            val v2 = V.find { it.label == e.second }
+
+            if (v1 != null && v2 != null) NetworkEdge(v1, v2) else null
+        }
+
+        val graph = NetworkGraph(V, E)
+
+        if (V.size > 1) {
+            val p = Parameter()
+            p.frameWidth = 1400
+            p.frameHeight = 1400
+            p.isEquilibriumCriterion = false
+            p.criterion = GRAPH_ITERATIONS.toDouble()
+            p.coolingRate = 0.01
+
+            Simulation(graph, p).run()
+        }
+
+        return GNDiagram(GND, d, graph)
+    }
+
+    private fun relation(D: Description, l1: Label, l2: Label): Relation {
+        val zones = Z(D) - azEmpty
+
+        val both = zones.any { l1 in it && l2 in it }
+        val only1 = zones.any { l1 in it && l2 !in it }
+        val only2 = zones.any { l2 in it && l1 !in it }
+
+        return when {
+            !both -> Relation.DISJOINT
+            !only1 -> Relation.FIRST_INSIDE
+            !only2 -> Relation.SECOND_INSIDE
+            else -> Relation.OVERLAP
+        }
+    }
+
+    /**
+     * Radius grows with the number of zones in the label, nested circles are smaller than their parents.
+     */
+    private fun computeRadii(D: Description, labels: List<Label>, relations: Map<Pair<Label, Label>, Relation>) {
+        val maxZones = labels.map { D.getNumZonesIn(it) }.max() ?: 1
+
+        labels.forEach {
+            radii[it] = BASE_RADIUS * Math.max(0.3, Math.sqrt(D.getNumZonesIn(it).toDouble() / maxZones))
+        }
+
+        // enough passes to propagate through nesting levels
+        repeat(labels.size) {
+            relations.forEach { (pair, relation) ->
+                when (relation) {
+                    Relation.FIRST_INSIDE -> radii[pair.first] = Math.min(radii[pair.first]!!, radii[pair.second]!! * 0.6)
+                    Relation.SECOND_INSIDE -> radii[pair.second] = Math.min(radii[pair.second]!!, radii[pair.first]!! * 0.6)
+                    else -> {}
+                }
+            }
+        }
+    }
+
+    /**
+     * Initial position is the average of already placed overlapping and containing circles,
+     * otherwise next to the circles placed so far.
+     */
+    private fun place(index: Int, label: Label, relations: Map<Pair<Label, Label>, Relation>) {
+        val partners = relations.filter { (pair, relation) ->
+            relation != Relation.DISJOINT && (pair.first == label && pair.second in centers || pair.second == label && pair.first in centers)
+        }.keys.map { if (it.first == label) it.second else it.first }
+
+        if (partners.isEmpty()) {
+            val maxX = centers.keys.map { centers[it]!!.x + radii[it]!! }.max()
+
+            centers[label] = if (maxX == null) Point2D.ZERO else Point2D(maxX + radii[label]!! + MARGIN, 0.0)
+            return
+        }
+
+        val avg = partners.map { centers[it]!! }
+                .fold(Point2D.ZERO, { acc, p -> acc.add(p) })
+                .multiply(1.0 / partners.size)
+
+        // offset in a different direction each time, so that circles are not concentric
+        val angle = Math.toRadians(index * 137.5)
+
+        centers[label] = avg.add(Math.cos(angle) * radii[label]!! * 0.5, Math.sin(angle) * radii[label]!! * 0.5)
+    }
+
+    private fun adjust(l1: Label, l2: Label, relation: Relation) {
+        val c1 = centers[l1]!!
+        val c2 = centers[l2]!!
+        val r1 = radii[l1]!!
+        val r2 = radii[l2]!!
+
+        val distance = c1.distance(c2)
+
+        val target = when (relation) {
+            // the smaller circle is centered on the boundary of the bigger one
+            Relation.OVERLAP -> Math.max(r1, r2)
+
+            Relation.DISJOINT -> if (distance < r1 + r2 + MARGIN) r1 + r2 + MARGIN else return
+
+            Relation.FIRST_INSIDE -> if (distance > r2 - r1 - MARGIN) Math.max(0.0, r2 - r1 - MARGIN) else return
+
+            Relation.SECOND_INSIDE -> if (distance > r1 - r2 - MARGIN) Math.max(0.0, r1 - r2 - MARGIN) else return
+        }
+
+        val direction = if (distance < 0.001) Point2D(1.0, 0.0) else c1.subtract(c2).normalize()
+
+        val correction = direction.multiply((target - distance) / 2)
+
+        centers[l1] = c1.add(correction)
+        centers[l2] = c2.subtract(correction)
+    }
+
+    /**
+     * @return approximate point inside the zone [az], the average center of its labels
+     */
+    private fun zoneCenter(az: AbstractZone): Point2D {
+        return az.labels.map { centers[it]!! }
+                .fold(Point2D.ZERO, { acc, p -> acc.add(p) })
+                .multiply(1.0 / az.labels.size)
+    }
+}
@@ -0,0 +1,180 @@
+package groupnet.euler
+
+import groupnet.euler.curves.CircleCurve
+import javafx.geometry.Rectangle2D
+
+/**
+ * Exact geometry of a diagram drawn with circles only.
+ * Each circle is split into arcs by its intersection points with other circles,
+ * every arc separates two zones, one inside the circle and one outside.
+ * Containment, adjacency, area, bounds and distance to boundary of zones are then computed in closed form,
+ * without converting circles to polygons.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class CircleArrangement(circles: Collection<CircleCurve>) {
+
+    private class Arc(val circle: CircleCurve, val startAngle: Double, val endAngle: Double) {
+
+        /**
+         * Integral of (x dy - y dx) / 2 along this arc, in order of increasing angle.
+         */
+        fun area(): Double {
+            val r = circle.radius
+
+            return (r * r * (endAngle - startAngle)
+                    + circle.centerX * r * (Math.sin(endAngle) - Math.sin(startAngle))
+                    - circle.centerY * r * (Math.cos(endAngle) - Math.cos(startAngle))) / 2
+        }
+
+        /**
+         * @return angles of the end points of this arc and of its points that are extreme in x or y
+         */
+        fun extremeAngles(): List<Double> {
+            val quarter = Math.PI / 2
+
+            val first = Math.ceil(startAngle / quarter).toInt()
+            val last = Math.floor(endAngle / quarter).toInt()
+
+            return listOf(startAngle, endAngle) + (first..last).map { it * quarter }
+        }
+    }
+
+    private val circles = circles.sortedBy { it.label }
+
+    /**
+     * Arcs that bound a zone from inside of their circle.
+     */
+    private val innerArcs = hashMapOf<AbstractZone, MutableList<Arc>>()
+
+    /**
+     * Arcs that bound a zone from outside of their circle.
+     */
+    private val outerArcs = hashMapOf<AbstractZone, MutableList<Arc>>()
+
+    init {
+        this.circles.forEach { circle ->
+            val angles = this.circles.minus(circle)
+                    .flatMap { intersectionAngles(circle, it) }
+                    .sorted()
+
+            val arcs = if (angles.isEmpty()) {
+                listOf(Arc(circle, 0.0, 2 * Math.PI))
+            } else {
+                angles.mapIndexed { i, angle ->
+                    if (i == angles.size - 1) Arc(circle, angle, angles[0] + 2 * Math.PI) else Arc(circle, angle, angles[i + 1])
+                }
+            }
+
+            arcs.forEach { arc ->
+                val mid = (arc.startAngle + arc.endAngle) / 2
+                val x = circle.centerX + circle.radius * Math.cos(mid)
+                val y = circle.centerY + circle.radius * Math.sin(mid)
+
+                val labels = this.circles.minus(circle).filter { contains(it, x, y) }.map { it.label }
+
+                innerArcs.getOrPut(AbstractZone(labels.plus(circle.label).toSet())) { arrayListOf() }.add(arc)
+                outerArcs.getOrPut(AbstractZone(labels.toSet())) { arrayListOf() }.add(arc)
+            }
+        }
+    }
+
+    /**
+     * Zones that are present in this arrangement, including the outside zone.
+     */
+    val zones: Set<AbstractZone> = innerArcs.keys + outerArcs.keys
+
+    /**
+     * @return angles of points where [circle] intersects [other], empty if they do not cross
+     */
+    private fun intersectionAngles(circle: CircleCurve, other: CircleCurve): List<Double> {
+        val dx = other.centerX - circle.centerX
+        val dy = other.centerY - circle.centerY
+        val d = Math.hypot(dx, dy)
+
+        if (d >= circle.radius + other.radius || d <= Math.abs(circle.radius - other.radius))
+            return emptyList()
+
+        // distance from circle center to the chord through intersection points
+        val a = (d * d + circle.radius * circle.radius - other.radius * other.radius) / (2 * d)
+
+        val base = Math.atan2(dy, dx)
+        val delta = Math.acos(Math.max(-1.0, Math.min(1.0, a / circle.radius)))
+
+        return listOf(normalize(base - delta), normalize(base + delta))
+    }
+
+    private fun normalize(angle: Double) = if (angle < 0) angle + 2 * Math.PI else angle
+
+    private fun contains(circle: CircleCurve, x: Double, y: Double): Boolean {
+        return Math.hypot(x - circle.centerX, y - circle.centerY) < circle.radius
+    }
+
+    /**
+     * @return true if point (x, y) lies in zone [az]
+     */
+    fun contains(az: AbstractZone, x: Double, y: Double): Boolean {
+        return circles.all { contains(it, x, y) == it.label in az }
+    }
+
+    /**
+     * @return distance from point (x, y) to the boundary of zone [az], positive inside, negative outside
+     */
+    fun signedDistance(az: AbstractZone, x: Double, y: Double): Double {
+        // the closest point on the closest circle is on the zone boundary, otherwise another circle would be closer
+        val distance = circles.map { Math.abs(Math.hypot(x - it.centerX, y - it.centerY) - it.radius) }.min() ?: 0.0
+
+        return if (contains(az, x, y)) distance else -distance
+    }
+
+    /**
+     * @return true if zones [az1] and [az2] share a boundary arc
+     */
+    fun isAdjacent(az1: AbstractZone, az2: AbstractZone) = sharesArc(az1, az2) || sharesArc(az2, az1)
+
+    private fun sharesArc(inner: AbstractZone, outer: AbstractZone): Boolean {
+        val arcs = outerArcs[outer] ?: return false
+
+        return innerArcs[inner]?.any { it in arcs } ?: false
+    }
+
+    /**
+     * @return exact bounds of zone [az], from the arcs around it, or null if it is not present
+     */
+    fun bounds(az: AbstractZone): Rectangle2D? {
+        val arcs = innerArcs[az].orEmpty() + outerArcs[az].orEmpty()
+
+        if (arcs.isEmpty())
+            return null
+
+        var minX = Double.POSITIVE_INFINITY
+        var minY = Double.POSITIVE_INFINITY
+        var maxX = Double.NEGATIVE_INFINITY
+        var maxY = Double.NEGATIVE_INFINITY
+
+        arcs.forEach { arc ->
+            arc.extremeAngles().forEach { angle ->
+                val x = arc.circle.centerX + arc.circle.radius * Math.cos(angle)
+                val y = arc.circle.centerY + arc.circle.radius * Math.sin(angle)
+
+                minX = Math.min(minX, x)
+                minY = Math.min(minY, y)
+                maxX = Math.max(maxX, x)
+                maxY = Math.max(maxY, y)
+            }
+        }
+
+        return Rectangle2D(minX, minY, maxX - minX, maxY - minY)
+    }
+
+    /**
+     * @return exact area of zone [az], 0 if it is not present, infinite for the outside zone
+     */
+    fun area(az: AbstractZone): Double {
+        if (az == AbstractZone.OUTSIDE)
+            return Double.POSITIVE_INFINITY
+
+        // Green's theorem, the zone is to the left of inner arcs and to the right of outer arcs
+        return (innerArcs[az]?.sumByDouble { it.area() } ?: 0.0) - (outerArcs[az]?.sumByDouble { it.area() } ?: 0.0)
+    }
+}
@@ -1,7 +1,12 @@
 package groupnet.euler
 
+import groupnet.algorithm.LabelPlacement
+import groupnet.algorithm.PolygonDistanceIndex
 import groupnet.algorithm.Polylabel
 import groupnet.euler.curves.CircleCurve
+import groupnet.geometry.FixedPolygon
+import groupnet.geometry.PolygonClipper
+import groupnet.geometry.Simplification
 import groupnet.gui.SettingsController
 import groupnet.util.*
 import javafx.beans.property.DoubleProperty
@@ -11,7 +16,6 @@ import javafx.geometry.Rectangle2D
 import javafx.scene.shape.Shape
 import math.geom2d.polygon.MultiPolygon2D
 import math.geom2d.polygon.Polygon2D
-import math.geom2d.polygon.Polygons2D
 import java.util.*
 import kotlin.math.sqrt
 
@@ -24,46 +28,112 @@ import kotlin.math.sqrt
  */
 abstract class Curve(val label: Label) : Comparable<Curve> {
 
-    private val labelPositionX = SimpleDoubleProperty()
-    private val labelPositionY = SimpleDoubleProperty()
+    private var labelX = 0.0
+    private var labelY = 0.0
 
-    fun labelPositionXProperty(): DoubleProperty = labelPositionX
-    fun labelPositionYProperty(): DoubleProperty = labelPositionY
+    // only created when bound for rendering, most curves are intermediate
+    private var labelPositionX: DoubleProperty? = null
+    private var labelPositionY: DoubleProperty? = null
 
-    fun getLabelPositionX(): Double = labelPositionX.value
-    fun getLabelPositionY(): Double = labelPositionY.value
+    fun labelPositionXProperty(): DoubleProperty = labelPositionX ?: SimpleDoubleProperty(labelX).also { labelPositionX = it }
+    fun labelPositionYProperty(): DoubleProperty = labelPositionY ?: SimpleDoubleProperty(labelY).also { labelPositionY = it }
+
+    fun getLabelPositionX(): Double = labelPositionX?.value ?: labelX
+    fun getLabelPositionY(): Double = labelPositionY?.value ?: labelY
 
     fun setLabelPositionX(value: Double) {
-        labelPositionX.value = value
+        labelX = value
+        labelPositionX?.value = value
     }
 
     fun setLabelPositionY(value: Double) {
-        labelPositionY.value = value
+        labelY = value
+        labelPositionY?.value = value
     }
 
-    val cachedPolygon by lazy { computePolygon() }
+    /**
+     * All geometry derived from this curve, e.g. its polygon for computational geometry.
+     */
+    val geometry = CurveGeometry(this)
 
-    val cachedShape by lazy { computeShape() }
+    /**
+     * @return a new bitmap view for rendering
+     */
+    fun getShape() = computeShape()
 
     /**
-     * @return a curve model for computational geometry
+     * Computed from geometry only, so unlike intersecting shapes this is thread-safe.
+     * The flattened polygon is used by default.
+     *
+     * @return true iff the segment from [start] to [end] crosses the outline of this curve
      */
-    fun getPolygon() = computePolygon()
+    open fun intersectsSegment(start: Point2D, end: Point2D): Boolean {
+        val bbox = geometry.bbox
+
+        if (Math.max(start.x, end.x) < bbox.minX || Math.min(start.x, end.x) > bbox.maxX
+                || Math.max(start.y, end.y) < bbox.minY || Math.min(start.y, end.y) > bbox.maxY)
+            return false
+
+        val vertices = geometry.polygon.vertices()
+
+        // closing edge first
+        var v1 = vertices.last()
+
+        for (v2 in vertices) {
+            if (segmentIntersectsSegment(start.x, start.y, end.x, end.y, v1.x(), v1.y(), v2.x(), v2.y()))
+                return true
+
+            v1 = v2
+        }
+
+        return false
+    }
 
     /**
-     * @return a bitmap view for rendering
+     * Uses the flattened polygon by default, regardless of its orientation.
+     *
+     * @return true if point (x, y) is inside this curve
      */
-    fun getShape() = computeShape()
+    open fun contains(x: Double, y: Double): Boolean {
+        val bbox = geometry.bbox
+
+        if (x < bbox.minX || x > bbox.maxX || y < bbox.minY || y > bbox.maxY)
+            return false
+
+        return geometry.distanceIndex.containsEvenOdd(x, y)
+    }
 
     abstract fun computePolygon(): Polygon2D
 
     abstract fun computeShape(): Shape
 
-    abstract fun copyWithNewLabel(newLabel: String): Curve
+    /**
+     * @return the same curve with label [newLabel], keeping the label position
+     */
+    fun copyWithNewLabel(newLabel: String): Curve {
+        val copy = withLabel(newLabel)
+        copy.setLabelPositionX(getLabelPositionX())
+        copy.setLabelPositionY(getLabelPositionY())
+        return copy
+    }
+
+    /**
+     * Maps each point p of this curve, including the label position, to p * [scale] + ([dx], [dy]) in one pass.
+     */
+    fun transform(scale: Double, dx: Double, dy: Double): Curve {
+        val copy = transformed(scale, dx, dy)
+        copy.setLabelPositionX(getLabelPositionX() * scale + dx)
+        copy.setLabelPositionY(getLabelPositionY() * scale + dy)
+        return copy
+    }
+
+    fun translate(translate: Point2D): Curve = transform(1.0, translate.x, translate.y)
+
+    fun scale(scale: Double, pivot: Point2D): Curve = transform(scale, (1 - scale) * pivot.x, (1 - scale) * pivot.y)
 
-    abstract fun translate(translate: Point2D): Curve
+    protected abstract fun withLabel(newLabel: String): Curve
 
-    abstract fun scale(scale: Double, pivot: Point2D): Curve
+    protected abstract fun transformed(scale: Double, dx: Double, dy: Double): Curve
 
     abstract fun toDebugString(): String
 
@@ -87,20 +157,37 @@ class Zone(
         /**
          * All curves present in the Euler diagram (to which this zone belongs).
          */
-        diagramCurves: Set<Curve>) {
+        private val curveIndex: CurveIndex,
+
+        /**
+         * Exact geometry of the Euler diagram, if it only has circles.
+         */
+        private val arrangement: CircleArrangement? = null,
+
+        /**
+         * Computes the shape from sub-diagrams, if the Euler diagram was composed of them.
+         */
+        private val composedShape: (() -> Polygon2D)? = null) {
+
+    /**
+     * Curves inside this zone, by their index in [curveIndex].
+     */
+    private val curveBits = curveIndex.bitsOf(az)
 
     /**
      * Curves inside this zone.
      */
-    val containingCurves = diagramCurves.filter { it.label in az }.toSet()
+    val containingCurves: List<Curve>
+        get() = curveIndex.curvesOf(curveBits)
 
     /**
      * Curves outside of this zone.
      */
-    val excludingCurves = diagramCurves - containingCurves
+    val excludingCurves: List<Curve>
+        get() = curveIndex.curvesNotIn(curveBits)
 
     init {
-        if (containingCurves.size != az.numLabels)
+        if (curveBits.cardinality() != az.numLabels)
             throw Bug("Abstract: $az does not match concrete: $containingCurves")
     }
 
@@ -108,11 +195,11 @@ class Zone(
         var shape: Shape = SettingsController.fxBBox
 
         for (curve in containingCurves) {
-            shape = Shape.intersect(shape, curve.getShape())
+            shape = Shape.intersect(shape, curve.geometry.shape)
         }
 
         for (curve in excludingCurves) {
-            shape = Shape.subtract(shape, curve.getShape())
+            shape = Shape.subtract(shape, curve.geometry.shape)
         }
 
         return shape
@@ -122,52 +209,99 @@ class Zone(
 
     private fun computeVisualCentre(): Point2D {
         if (az == AbstractZone.OUTSIDE) {
-            val minCurveX = excludingCurves.map { it.getPolygon().boundingBox().minX }.min()!!
-            val maxCurveX = excludingCurves.map { it.getPolygon().boundingBox().maxX }.max()!!
-            val minCurveY = excludingCurves.map { it.getPolygon().boundingBox().minY }.min()!!
+            val minCurveX = excludingCurves.map { it.geometry.bbox.minX }.min()!!
+            val maxCurveX = excludingCurves.map { it.geometry.bbox.maxX }.max()!!
+            val minCurveY = excludingCurves.map { it.geometry.bbox.minY }.min()!!
 
             return Point2D((minCurveX + maxCurveX) / 2, (SettingsController.geomBBox.boundingBox().minY * 0.1 + minCurveY * 0.9))
         }
 
-        return Polylabel.findCenter(polygonShape)
+        // circle-only zones do not need their polygon, which is then only built for rendering and routing
+        if (exactArrangement != null) {
+            exactArrangement.bounds(az)?.let { bounds ->
+                return Polylabel.findCenter(bounds.minX, bounds.minY, bounds.maxX, bounds.maxY,
+                        { x, y -> exactArrangement.signedDistance(az, x, y) },
+                        (bounds.minX + bounds.maxX) / 2, (bounds.minY + bounds.maxY) / 2)
+            }
+        }
+
+        return Polylabel.findCenter(polygonShape, distanceIndex)
     }
 
     val polygonShape by lazy { computePolygonShape() }
 
+    val distanceIndex by lazy { PolygonDistanceIndex(polygonShape) }
+
+    val bbox by lazy { polygonShape.boundingBox() }
+
     private fun computePolygonShape(): Polygon2D {
-        var pShape = SettingsController.geomBBox
+        if (composedShape != null)
+            return composedShape.invoke()
+
+        var pShape = FixedPolygon.of(SettingsController.geomBBox)
 
-        containingCurves.map { c -> c.getPolygon() }.forEach { p -> pShape = Polygons2D.intersection(pShape, p) }
+        containingCurves.map { c -> c.geometry.fixedPolygon }.forEach { p -> pShape = PolygonClipper.intersection(pShape, p) }
 
-        excludingCurves.map { c -> c.getPolygon() }.forEach { p -> pShape = Polygons2D.difference(pShape, p) }
+        excludingCurves.map { c -> c.geometry.fixedPolygon }.forEach { p -> pShape = PolygonClipper.difference(pShape, p) }
 
-        return pShape
+        return curveIndex.simplifier.simplify(pShape).toPolygon2D()
     }
 
+    /**
+     * Exact for circles, otherwise approximated by [polygonShape].
+     * The outside zone is bounded by the bbox, which only the polygon has.
+     */
+    private val exactArrangement = if (az == AbstractZone.OUTSIDE) null else arrangement
+
+    val area by lazy { exactArrangement?.area(az) ?: Math.abs(polygonShape.area()) }
+
+    fun contains(x: Double, y: Double): Boolean {
+        if (exactArrangement != null)
+            return exactArrangement.contains(az, x, y)
+
+        return distanceIndex.containsEvenOdd(x, y)
+    }
+
+    /**
+     * Vertices of [polygonShape] snapped to integer coordinates, in polygon order.
+     */
+    val snappedVertices: Set<java.awt.Point> by lazy { polygonShape.vertices().mapTo(linkedSetOf()) { it.asInt } }
+
+    /**
+     * Use [VertexIndex.isAdjacent] when testing many pairs of zones of the same diagram.
+     */
     fun isTopologicallyAdjacent(other: Zone): Boolean {
         if (!az.isNeighbour(other.az))
             return false
 
-        for (v1 in polygonShape.vertices()) {
-            for (v2 in other.polygonShape.vertices()) {
-                if (v1.asInt == v2.asInt)
-                    return true
-            }
-        }
+        if (arrangement != null)
+            return arrangement.isAdjacent(az, other.az)
 
-        return false
+        val otherVertices = other.snappedVertices
+
+        return snappedVertices.any { it in otherVertices }
     }
 
     fun separatingCurve(other: Zone): Curve? {
-        val diff = containingCurves.symmetricDifference(other.containingCurves)
-        return if (diff.size == 1) diff.first() else null
+        if (curveIndex != other.curveIndex) {
+            val diff = containingCurves.toSet().symmetricDifference(other.containingCurves.toSet())
+            return if (diff.size == 1) diff.first() else null
+        }
+
+        val diff = curveBits.clone() as BitSet
+        diff.xor(other.curveBits)
+
+        return if (diff.cardinality() == 1) curveIndex.curves[diff.nextSetBit(0)] else null
     }
 
     fun shortestDistanceToOtherZone(point: Point2D): Double {
-        if (polygonShape is MultiPolygon2D) {
-            return Math.abs(polygonShape.complement().boundary().signedDistance(point.x, point.y))
+        if (exactArrangement != null)
+            return Math.abs(exactArrangement.signedDistance(az, point.x, point.y))
+
+        if (distanceIndex.isMultiPolygon) {
+            return Math.abs(distanceIndex.complementSignedDistance(point.x, point.y))
         } else {
-            return Math.abs(-polygonShape.boundary().signedDistance(point.x, point.y))
+            return Math.abs(-distanceIndex.signedDistance(point.x, point.y))
         }
     }
 
@@ -175,19 +309,15 @@ class Zone(
         if (other !is Zone)
             return false
 
-        return az == other.az &&
-                containingCurves.size == other.containingCurves.size &&
-                excludingCurves.size == other.excludingCurves.size &&
-                containingCurves.containsAll(other.containingCurves) &&
-                excludingCurves.containsAll(other.excludingCurves)
+        return hash == other.hash &&
+                curveBits == other.curveBits &&
+                az == other.az &&
+                curveIndex == other.curveIndex
     }
 
-    private val hash1 = containingCurves.sumBy { it.hashCode() }
-    private val hash2 = excludingCurves.sumBy { it.hashCode() }
+    private val hash = Objects.hash(az, curveIndex, curveBits)
 
-    override fun hashCode(): Int {
-        return Objects.hash(az, hash1, hash2)
-    }
+    override fun hashCode() = hash
 
     override fun toString() = az.toString()
 }
@@ -197,29 +327,78 @@ class Zone(
  */
 class EulerDiagram(val originalDescription: Description,
                    val actualDescription: Description,
-                   curvesInternal: Set<Curve>) : Logable {
+                   curvesInternal: Set<Curve>,
+
+                   /**
+                    * How this diagram was composed of sub-diagrams, if it was.
+                    */
+                   val embedding: Embedding? = null,
+
+                   /**
+                    * Tolerance to simplify zone polygons with, shared with diagrams derived from this one.
+                    */
+                   val simplification: Simplification = Simplification()) : Logable {
 
     val props = hashMapOf<Any, Any>()
 
     val curves = Collections.unmodifiableSet(curvesInternal)
 
+    val numNonCircles = curves.size - curves.filter { it is CircleCurve }.size
+
+    /**
+     * Exact geometry of zones, only available if all curves are circles.
+     */
+    val circleArrangement = if (numNonCircles == 0) CircleArrangement(curves.map { it as CircleCurve }) else null
+
+    /**
+     * Shared by all zones of this Euler diagram.
+     */
+    val curveIndex = CurveIndex(curves, simplification)
+
     /**
      * All zones of this Euler diagram, including shaded zones.
      * Does not include the outside zone.
      */
-    val zones = actualDescription.abstractZones.minus(AbstractZone.OUTSIDE).map { Zone(it, curves) }.toSet()
+    val zones = actualDescription.abstractZones.minus(AbstractZone.OUTSIDE).map { Zone(it, curveIndex, circleArrangement, embedding?.shapeOf(it)) }.toSet()
 
     val shadedZones = zones.filter { it.az !in Z(originalDescription) }
 
-    val outsideZone = Zone(AbstractZone.OUTSIDE, curves)
+    val outsideZone = Zone(AbstractZone.OUTSIDE, curveIndex, circleArrangement, embedding?.shapeOf(AbstractZone.OUTSIDE))
+
+    private val zonesByAbstraction = (zones + outsideZone).associateBy { it.az }
+
+    /**
+     * Index of curves and zones by their bounding boxes.
+     */
+    val spatialIndex by lazy { SpatialIndex(this) }
+
+    /**
+     * Index of vertices of all zones, including the outside zone.
+     */
+    val vertexIndex by lazy { VertexIndex(zones + outsideZone) }
 
-    val numNonCircles = C(this).size - C(this).filter { it is CircleCurve }.size
+    /**
+     * Exact for circles, otherwise zones are adjacent if their polygons share a vertex.
+     */
+    fun isAdjacent(zone1: Zone, zone2: Zone): Boolean {
+        if (circleArrangement != null)
+            return zone1.az.isNeighbour(zone2.az) && circleArrangement.isAdjacent(zone1.az, zone2.az)
+
+        return vertexIndex.isAdjacent(zone1, zone2)
+    }
 
     fun getZone(az: AbstractZone): Zone {
         if (az == azEmpty)
             return outsideZone
 
-        return zones.find { it.az == az } ?: throw Bug("No zone exists with abstraction $az")
+        return zonesByAbstraction[az] ?: throw Bug("No zone exists with abstraction $az")
+    }
+
+    /**
+     * Computes [Zone.visualCenter] of [zones] in parallel, so that later calls return immediately.
+     */
+    fun computeVisualCenters(zones: Collection<Zone> = this.zones) {
+        zones.map { async { it.visualCenter } }.forEach { it.await() }
     }
 
     fun drawIntoZone(az: AbstractZone, diagram: EulerDiagram, zoneScore: Int = 1): EulerDiagram {
@@ -241,14 +420,10 @@ class EulerDiagram(val originalDescription: Description,
 
             scaleRatio = 1.0
 
-            val scaledCurves = diagram.curves.map { it.scale(scaleRatio, diagramCenter) }
-
-            val newCurves = curves.plus(scaledCurves.map { it.translate(newCenter.subtract(diagramCenter)) })
-
-            new_d = EulerDiagram(originalDescription + diagram.originalDescription, actualDescription + diagram.actualDescription, newCurves)
+            new_d = embed(az, diagram, scaleRatio, diagramCenter, newCenter)
 
         } else {
-            val zone = zones.find { it.az == az } ?: throw Bug("No zone $az found in $this")
+            val zone = getZone(az)
 
             newCenter = zone.visualCenter
 
@@ -262,15 +437,11 @@ class EulerDiagram(val originalDescription: Description,
             // we are embedding into az, so score of az can never be 0
             scaleRatio = minRadius / actualRadius / maxOf(sqrt(zoneScore.toDouble()) * 0.5, 0.75)
 
-            val scaledCurves = diagram.curves.map { it.scale(scaleRatio, diagramCenter) }
-
-            val newCurves = curves.plus(scaledCurves.map { it.translate(newCenter.subtract(diagramCenter)) })
-
-            new_d = EulerDiagram(originalDescription + diagram.originalDescription, actualDescription + diagram.actualDescription, newCurves)
+            new_d = embed(az, diagram, scaleRatio, diagramCenter, newCenter)
         }
 
         if (az != azEmpty) {
-            new_d.curves.filter { it.label in diagram.curves.map { it.label } }.forEach { new_d.updateLabelPosition(it) }
+            LabelPlacement(new_d).placeLabels(new_d.curves.filter { it.label in diagram.curves.map { it.label } })
         }
 
         new_d.props["embedCenter"] = newCenter
@@ -278,66 +449,36 @@ class EulerDiagram(val originalDescription: Description,
         return new_d
     }
 
-    private fun updateLabelPosition(curve: Curve) {
-        val otherCurves = C(this).minus(curve)
-        val polygon = curve.cachedPolygon
-        val center = polygon.centroid()
-
-        val labelPos = polygon.vertices()
-                .map { Point2D(it.x(), it.y()) }
-                .map {
-                    val magnitude = capMagnitude(if (curve is CircleCurve) curve.radius / 3 else 150.0)
-
-                    val r = if (curve is CircleCurve) curve.radius else 0.0
-
-                    // compute vector outwards
-                    it.add(it.subtract(center.x(), center.y()).normalize().multiply(magnitude))
-                }
-                .sortedBy {
-                    val minDistance = minDistanceToOtherCurves(it, otherCurves)
-                    val numCurves = numCurvesThatContainPoint(it, otherCurves)
+    /**
+     * [diagram] is scaled around [center] by [scaleRatio], then [center] is moved to [newCenter].
+     * Zones of the new diagram reuse zones of this diagram and of [diagram] through the embedding,
+     * rather than being computed from all curves again.
+     * Only the curves themselves are moved, since they belong to the new diagram for rendering.
+     */
+    private fun embed(az: AbstractZone, diagram: EulerDiagram, scaleRatio: Double, center: Point2D, newCenter: Point2D): EulerDiagram {
+        val embedding = Embedding(this, az, diagram, scaleRatio, newCenter.x - center.x * scaleRatio, newCenter.y - center.y * scaleRatio)
 
-                    // number of curves has a more significant impact
-                    2000 * numCurves - minDistance
-                }
-                .first()!!
+        val movedCurves = diagram.curves.map { it.transform(embedding.scale, embedding.dx, embedding.dy) }
 
-        curve.setLabelPositionX(labelPos.x)
-        curve.setLabelPositionY(labelPos.y)
+        return EulerDiagram(originalDescription + diagram.originalDescription, actualDescription + diagram.actualDescription,
+                curves + movedCurves, embedding, simplification)
     }
 
-    private fun capMagnitude(mag: Double): Double {
-        if (mag > 300)
-            return 300.0
+    private val cachedBBox by lazy {
+        if (embedding != null)
+            return@lazy embedding.bbox()
 
-        if (mag < 150)
-            return 150.0
+        val bounds = curves.map { it.geometry.bbox }
 
-        return mag
-    }
+        val minX = bounds.map { it.minX }.min()!!
+        val minY = bounds.map { it.minY }.min()!!
+        val maxX = bounds.map { it.maxX }.max()!!
+        val maxY = bounds.map { it.maxY }.max()!!
 
-    private fun numCurvesThatContainPoint(point: Point2D, curves: Set<Curve>) = curves.count { it.cachedShape.contains(point) }
-
-    private fun minDistanceToOtherCurves(point: Point2D, curves: Set<Curve>): Double {
-        return curves.map { it.cachedPolygon.boundary().signedDistance(point.x, point.y) }
-                // -20 is threshold on how "close" we think it is
-                // because of polygon <-> smooth representations we might lose precision
-                .filter { it >= -20 }
-                .min()
-                ?: 0.0
+        Rectangle2D(minX, minY, maxX - minX, maxY - minY)
     }
 
-    fun bbox(): Rectangle2D {
-        val polygons = curves.map { it.getPolygon() }
-        val vertices = polygons.flatMap { it.vertices() }
-
-        val minX = vertices.minBy { it.x() }!!.x()
-        val minY = vertices.minBy { it.y() }!!.y()
-        val maxX = vertices.maxBy { it.x() }!!.x()
-        val maxY = vertices.maxBy { it.y() }!!.y()
-
-        return Rectangle2D(minX, minY, maxX - minX, maxY - minY)
-    }
+    fun bbox(): Rectangle2D = cachedBBox
 
     fun size(): Double {
         val bbox = bbox()
@@ -350,11 +491,11 @@ class EulerDiagram(val originalDescription: Description,
     }
 
     fun translate(vector: Point2D): EulerDiagram {
-        return EulerDiagram(originalDescription, actualDescription, curves.map { it.translate(vector) }.toSet())
+        return EulerDiagram(originalDescription, actualDescription, curves.map { it.translate(vector) }.toSet(), simplification = simplification)
     }
 
     fun scale(pivot: Point2D, ratio: Double): EulerDiagram {
-        return EulerDiagram(originalDescription, actualDescription, curves.map { it.scale(ratio, pivot) }.toSet())
+        return EulerDiagram(originalDescription, actualDescription, curves.map { it.scale(ratio, pivot) }.toSet(), simplification = simplification)
     }
 
     override fun toLog(): String {
@@ -380,4 +521,80 @@ class EulerDiagram(val originalDescription: Description,
     override fun toString(): String {
         return "ED[D=$actualDescription]"
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Diagram [guest] drawn into zone [az] of diagram [host], after mapping each of its points p to p * [scale] + ([dx], [dy]).
+ * Curves of [guest] lie inside [az], so [host] zones other than [az] are not changed by them,
+ * and [host] curves do not cross [guest] zones.
+ * Both diagrams are kept as they are, possibly composed themselves, so embeddings form a tree
+ * and the composed diagram answers queries about guest zones and curves through the transform.
+ */
+class Embedding(val host: EulerDiagram, val az: AbstractZone, val guest: EulerDiagram,
+                val scale: Double, val dx: Double, val dy: Double) {
+
+    /**
+     * Area covered by guest curves in place, i.e. the outside zone of [guest] without its outer ring.
+     * It has the same vertices as the guest zones along its boundary, so [az] stays adjacent to them.
+     */
+    private val guestArea by lazy {
+        val rings = transform(guest.outsideZone.polygonShape).rings
+
+        val outerRing = rings.maxBy { ring -> (0 until ring.size / 2).map { ring[2 * it] }.max()!! }
+
+        FixedPolygon(rings.filter { it !== outerRing })
+    }
+
+    /**
+     * @return how to compute the shape of zone [zone] of the composed diagram
+     */
+    fun shapeOf(zone: AbstractZone): () -> Polygon2D {
+        if (zone == az) {
+            // the host boundary is shared with other host zones as it is, and guest curves leave holes
+            return { PolygonClipper.difference(FixedPolygon.of(host.getZone(az).polygonShape), guestArea).toPolygon2D() }
+        }
+
+        if (zone in host.actualDescription.abstractZones)
+            return { host.getZone(zone).polygonShape }
+
+        val guestZone = AbstractZone(zone.labels - az.labels)
+
+        return { transform(guest.getZone(guestZone).polygonShape).toPolygon2D() }
+    }
+
+    fun toGuestX(x: Double) = (x - dx) / scale
+
+    fun toGuestY(y: Double) = (y - dy) / scale
+
+    /**
+     * @return bounds of the composed diagram, from bounds of [host] and [guest]
+     */
+    fun bbox(): Rectangle2D {
+        val hostBBox = host.bbox()
+        val guestBBox = guest.bbox()
+
+        val minX = Math.min(hostBBox.minX, guestBBox.minX * scale + dx)
+        val minY = Math.min(hostBBox.minY, guestBBox.minY * scale + dy)
+        val maxX = Math.max(hostBBox.maxX, guestBBox.maxX * scale + dx)
+        val maxY = Math.max(hostBBox.maxY, guestBBox.maxY * scale + dy)
+
+        return Rectangle2D(minX, minY, maxX - minX, maxY - minY)
+    }
+
+    /**
+     * Vertices are rounded to the fixed-point grid, so equal vertices of different guest zones stay equal.
+     */
+    private fun transform(polygon: Polygon2D): FixedPolygon {
+        return FixedPolygon(polygon.contours().map { ring ->
+            val coords = LongArray(ring.vertexNumber() * 2)
+
+            var i = 0
+            for (v in ring.vertices()) {
+                coords[i++] = FixedPolygon.toFixed(v.x() * scale + dx)
+                coords[i++] = FixedPolygon.toFixed(v.y() * scale + dy)
+            }
+
+            coords
+        })
+    }
+}
@@ -0,0 +1,150 @@
+package groupnet.euler
+
+import groupnet.algorithm.PolygonDistanceIndex
+import groupnet.geometry.FixedPolygon
+import javafx.scene.shape.Shape
+import math.geom2d.Box2D
+import math.geom2d.polygon.Polygon2D
+import java.lang.ref.Reference
+import java.lang.ref.SoftReference
+import java.lang.ref.WeakReference
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Geometry derived from a curve, computed on first use.
+ * Curves are immutable, so this is owned by the curve and shared by all diagrams that contain it.
+ * The polygon and its bounding box are always kept, data derived from the polygon is kept
+ * according to [retention] and recomputed if it was collected.
+ * Thread-safe.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class CurveGeometry internal constructor(private val curve: Curve) {
+
+    companion object {
+
+        /**
+         * How derived data of geometries created from now on is held.
+         */
+        @JvmStatic @Volatile var retention = Retention.STRONG
+
+        private val computedBytes = AtomicLong()
+
+        /**
+         * Approximate size of all derived data computed so far, including data since collected.
+         */
+        @JvmStatic fun computedBytes() = computedBytes.get()
+
+        // approximate sizes per vertex, from object headers, fields and references
+        private const val POLYGON_BYTES_PER_VERTEX = 40L
+        private const val FIXED_BYTES_PER_VERTEX = 16L
+        private const val INDEX_BYTES_PER_VERTEX = 112L
+    }
+
+    enum class Retention {
+
+        /**
+         * Kept while the curve is reachable.
+         */
+        STRONG,
+
+        /**
+         * Kept until the JVM runs low on memory.
+         */
+        SOFT,
+
+        /**
+         * Kept until the next garbage collection.
+         */
+        WEAK
+    }
+
+    private val retentionPolicy = retention
+
+    /**
+     * Flattened polygon used for computational geometry, must not be modified.
+     */
+    val polygon: Polygon2D by lazy {
+        curve.computePolygon().also { computedBytes.addAndGet(it.vertexNumber() * POLYGON_BYTES_PER_VERTEX) }
+    }
+
+    val bbox: Box2D by lazy { polygon.boundingBox() }
+
+    val area by lazy { Math.abs(polygon.area()) }
+
+    private val distanceIndexData = Derived({ PolygonDistanceIndex(polygon) }, { polygon.vertexNumber() * INDEX_BYTES_PER_VERTEX })
+
+    private val fixedPolygonData = Derived({ FixedPolygon.of(polygon) }, { polygon.vertexNumber() * FIXED_BYTES_PER_VERTEX })
+
+    private val flattenedData = hashMapOf<Double, Derived<Polygon2D>>()
+
+    val distanceIndex: PolygonDistanceIndex get() = distanceIndexData.get()
+
+    /**
+     * [polygon] on the grid used by [groupnet.geometry.PolygonClipper].
+     */
+    val fixedPolygon: FixedPolygon get() = fixedPolygonData.get()
+
+    /**
+     * Only for boolean operations of JavaFX shapes, since a shape can only be in one scene graph.
+     * Use [Curve.getShape] for a shape to render.
+     */
+    val shape: Shape by lazy { curve.computeShape() }
+
+    /**
+     * Polygons of other levels of detail, cached by [flatness].
+     *
+     * @return polygon computed by [flatten] with given [flatness]
+     */
+    fun flattened(flatness: Double, flatten: () -> Polygon2D): Polygon2D {
+        val data = synchronized(flattenedData) {
+            flattenedData.getOrPut(flatness) { Derived(flatten, { it.vertexNumber() * POLYGON_BYTES_PER_VERTEX }) }
+        }
+
+        return data.get()
+    }
+
+    /**
+     * @return approximate size of derived data currently held
+     */
+    fun estimatedBytes(): Long {
+        val flattened = synchronized(flattenedData) { flattenedData.values.toList() }
+
+        return polygon.vertexNumber() * POLYGON_BYTES_PER_VERTEX +
+                distanceIndexData.heldBytes() +
+                fixedPolygonData.heldBytes() +
+                flattened.map { it.heldBytes() }.sum()
+    }
+
+    /**
+     * Data computed from the curve, held according to [retentionPolicy].
+     */
+    private inner class Derived<T : Any>(private val compute: () -> T, private val sizeOf: (T) -> Long) {
+
+        private var ref: Reference<T>? = null
+        private var strong: T? = null
+        private var bytes = 0L
+
+        @Synchronized fun get(): T {
+            strong?.let { return it }
+            ref?.get()?.let { return it }
+
+            val value = compute()
+
+            bytes = sizeOf(value)
+            computedBytes.addAndGet(bytes)
+
+            when (retentionPolicy) {
+                Retention.STRONG -> strong = value
+                Retention.SOFT -> ref = SoftReference(value)
+                Retention.WEAK -> ref = WeakReference(value)
+            }
+
+            return value
+        }
+
+        @Synchronized fun heldBytes(): Long {
+            return if (strong != null || ref?.get() != null) bytes else 0L
+        }
+    }
+}
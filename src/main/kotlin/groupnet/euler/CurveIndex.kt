@@ -0,0 +1,88 @@
+package groupnet.euler
+
+import groupnet.geometry.PolygonSimplifier
+import groupnet.geometry.Simplification
+import java.util.*
+
+/**
+ * Curves of an Euler diagram in label order, so that zones can refer to them by index.
+ * Equal sets of curves have the same order, hence zones of equal diagrams have equal bits.
+ * Immutable.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class CurveIndex(curves: Collection<Curve>,
+
+                 /**
+                  * Tolerance to simplify zone polygons with and where to count their vertices.
+                  */
+                 private val simplification: Simplification = Simplification()) {
+
+    val curves: List<Curve> = curves.sorted()
+
+    val size: Int
+        get() = curves.size
+
+    private val hash = curves.sumBy { it.hashCode() }
+
+    /**
+     * Simplifies zone polygons along these curves.
+     */
+    val simplifier by lazy { PolygonSimplifier(this.curves.map { it.geometry.fixedPolygon }, simplification) }
+
+    /**
+     * @return bits of curves whose labels are in [az]
+     */
+    fun bitsOf(az: AbstractZone): BitSet {
+        val bits = BitSet(size)
+
+        curves.forEachIndexed { i, curve ->
+            if (curve.label in az)
+                bits.set(i)
+        }
+
+        return bits
+    }
+
+    /**
+     * @return curves whose bits are set in [bits]
+     */
+    fun curvesOf(bits: BitSet): List<Curve> {
+        val result = ArrayList<Curve>(bits.cardinality())
+
+        var i = bits.nextSetBit(0)
+        while (i >= 0) {
+            result.add(curves[i])
+            i = bits.nextSetBit(i + 1)
+        }
+
+        return result
+    }
+
+    /**
+     * @return curves whose bits are not set in [bits]
+     */
+    fun curvesNotIn(bits: BitSet): List<Curve> {
+        val result = ArrayList<Curve>(size - bits.cardinality())
+
+        var i = bits.nextClearBit(0)
+        while (i < size) {
+            result.add(curves[i])
+            i = bits.nextClearBit(i + 1)
+        }
+
+        return result
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other)
+            return true
+
+        if (other !is CurveIndex)
+            return false
+
+        return hash == other.hash && curves == other.curves
+    }
+
+    override fun hashCode() = hash
+}
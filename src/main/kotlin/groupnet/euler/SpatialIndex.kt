@@ -0,0 +1,151 @@
+package groupnet.euler
+
+import groupnet.geometry.RTree
+import javafx.geometry.Point2D
+
+/**
+ * Answers point and box queries about curves and zones of a diagram via R-trees of their bounding boxes.
+ * Zone boxes need zone shapes, so the zone tree is only built on the first zone query.
+ * Curves of a composed diagram are looked up in the indices of its host and guest diagrams,
+ * through the transform of the embedding, rather than indexed again.
+ * Immutable, so it can be shared between threads.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class SpatialIndex(private val diagram: EulerDiagram) {
+
+    private val embedding = diagram.embedding
+
+    private val curves = diagram.curves.toList()
+
+    private val curveTree by lazy {
+        RTree(
+                DoubleArray(curves.size) { curves[it].geometry.bbox.minX },
+                DoubleArray(curves.size) { curves[it].geometry.bbox.minY },
+                DoubleArray(curves.size) { curves[it].geometry.bbox.maxX },
+                DoubleArray(curves.size) { curves[it].geometry.bbox.maxY }
+        )
+    }
+
+    /**
+     * Curves of this diagram that guest curves of the embedding were moved to.
+     */
+    private val curvesByLabel by lazy { curves.associateBy { it.label } }
+
+    /**
+     * Does not include the outside zone, which covers everything else.
+     */
+    private val zones = diagram.zones.toList()
+
+    private val zoneTree by lazy {
+        RTree(
+                DoubleArray(zones.size) { zones[it].bbox.minX },
+                DoubleArray(zones.size) { zones[it].bbox.minY },
+                DoubleArray(zones.size) { zones[it].bbox.maxX },
+                DoubleArray(zones.size) { zones[it].bbox.maxY }
+        )
+    }
+
+    /**
+     * @return curves that contain point (x, y)
+     */
+    fun curvesContaining(x: Double, y: Double): List<Curve> {
+        val result = arrayListOf<Curve>()
+
+        forEachCurveContaining(x, y) { result.add(it) }
+
+        return result
+    }
+
+    fun numCurvesContaining(x: Double, y: Double): Int {
+        var count = 0
+
+        forEachCurveContaining(x, y) { count++ }
+
+        return count
+    }
+
+    private fun forEachCurveContaining(x: Double, y: Double, action: (Curve) -> Unit) {
+        if (embedding != null) {
+            embedding.host.spatialIndex.forEachCurveContaining(x, y, action)
+
+            embedding.guest.spatialIndex.forEachCurveContaining(embedding.toGuestX(x), embedding.toGuestY(y)) {
+                action(curvesByLabel[it.label]!!)
+            }
+
+            return
+        }
+
+        curveTree.search(x, y, x, y) {
+            if (curves[it].contains(x, y))
+                action(curves[it])
+        }
+    }
+
+    /**
+     * @return curves whose bounding boxes intersect the given box
+     */
+    fun curvesIntersecting(minX: Double, minY: Double, maxX: Double, maxY: Double): List<Curve> {
+        val result = arrayListOf<Curve>()
+
+        forEachCurveIntersecting(minX, minY, maxX, maxY) { result.add(it) }
+
+        return result
+    }
+
+    private fun forEachCurveIntersecting(minX: Double, minY: Double, maxX: Double, maxY: Double, action: (Curve) -> Unit) {
+        if (embedding != null) {
+            embedding.host.spatialIndex.forEachCurveIntersecting(minX, minY, maxX, maxY, action)
+
+            // scale is positive, so the box stays a box with the same corners
+            embedding.guest.spatialIndex.forEachCurveIntersecting(embedding.toGuestX(minX), embedding.toGuestY(minY),
+                    embedding.toGuestX(maxX), embedding.toGuestY(maxY)) {
+                action(curvesByLabel[it.label]!!)
+            }
+
+            return
+        }
+
+        curveTree.search(minX, minY, maxX, maxY) { action(curves[it]) }
+    }
+
+    /**
+     * The zone is found from the curves that contain the point, so zone shapes are not needed.
+     *
+     * @return zone that contains point (x, y), or null if the diagram has no such zone
+     */
+    fun zoneAt(x: Double, y: Double): Zone? {
+        val az = AbstractZone(curvesContaining(x, y).map { it.label }.toSet())
+
+        return if (az in diagram.actualDescription.abstractZones) diagram.getZone(az) else null
+    }
+
+    /**
+     * @return zones, other than the outside zone, whose bounding boxes intersect the given box
+     */
+    fun zonesIntersecting(minX: Double, minY: Double, maxX: Double, maxY: Double): List<Zone> {
+        val result = arrayListOf<Zone>()
+
+        zoneTree.search(minX, minY, maxX, maxY) { result.add(zones[it]) }
+
+        return result
+    }
+
+    /**
+     * @return the zone, other than the outside zone, closest to point (x, y), i.e. containing it if there is one
+     */
+    fun nearestZone(x: Double, y: Double): Zone? {
+        var nearest: Zone? = null
+
+        zoneTree.nearest(x, y, {
+            val zone = zones[it]
+
+            if (zone.contains(x, y)) 0.0 else zone.shortestDistanceToOtherZone(Point2D(x, y))
+        }) { item, _ ->
+            nearest = zones[item]
+            false
+        }
+
+        return nearest
+    }
+}
@@ -0,0 +1,44 @@
+package groupnet.euler
+
+import java.awt.Point
+
+/**
+ * Maps each polygon vertex, snapped to integer coordinates, to the zones whose boundary has it.
+ * Zones meet at such vertices, so adjacency and piercing point queries become hash lookups.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class VertexIndex(zones: Collection<Zone>) {
+
+    private val zonesAt = hashMapOf<Point, MutableSet<Zone>>()
+
+    init {
+        zones.forEach { zone ->
+            zone.snappedVertices.forEach {
+                zonesAt.getOrPut(it) { hashSetOf() }.add(zone)
+            }
+        }
+    }
+
+    /**
+     * @return zones that have vertex [p], empty if none or the zones were not indexed
+     */
+    fun zonesAt(p: Point): Set<Zone> = zonesAt[p] ?: emptySet()
+
+    /**
+     * @return vertices shared by all zones in [zones], in the order of the first zone
+     */
+    fun sharedVertices(zones: List<Zone>): List<Point> {
+        if (zones.isEmpty())
+            return emptyList()
+
+        return zones[0].snappedVertices.filter { zonesAt(it).containsAll(zones) }
+    }
+
+    fun isAdjacent(zone1: Zone, zone2: Zone): Boolean {
+        if (!zone1.az.isNeighbour(zone2.az))
+            return false
+
+        return zone1.snappedVertices.any { zone2 in zonesAt(it) }
+    }
+}
@@ -3,6 +3,7 @@ package groupnet.euler.curves
 import groupnet.algorithm.Converter
 import groupnet.euler.Curve
 import groupnet.euler.Label
+import groupnet.util.distanceSegmentPoint
 import javafx.geometry.Point2D
 import javafx.scene.shape.Circle
 import java.util.*
@@ -27,27 +28,26 @@ class CircleCurve(
 
     override fun computePolygon() = Converter.circleToPolygon(this)
 
-    override fun copyWithNewLabel(newLabel: String): Curve {
-        val copy = CircleCurve(newLabel, centerX, centerY, radius)
-        copy.setLabelPositionX(getLabelPositionX())
-        copy.setLabelPositionY(getLabelPositionY())
-        return copy
-    }
+    /**
+     * Exact.
+     */
+    override fun contains(x: Double, y: Double) = Math.hypot(x - centerX, y - centerY) < radius
 
-    override fun translate(translate: Point2D): Curve {
-        val copy = CircleCurve(label, centerX + translate.x, centerY + translate.y, radius)
-        copy.setLabelPositionX(getLabelPositionX() + translate.x)
-        copy.setLabelPositionY(getLabelPositionY() + translate.y)
-        return copy
-    }
+    /**
+     * Exact, the segment crosses the circle iff its closest point is inside
+     * and its farthest point, which is one of its ends, is outside.
+     */
+    override fun intersectsSegment(start: Point2D, end: Point2D): Boolean {
+        val center = Point2D(centerX, centerY)
 
-    override fun scale(scale: Double, pivot: Point2D): Curve {
-        val scaled = CircleCurve(label, centerX * scale + (1-scale) * pivot.x, centerY * scale + (1-scale) * pivot.y, radius * scale)
-        scaled.setLabelPositionX(getLabelPositionX() * scale + (1-scale) * pivot.x)
-        scaled.setLabelPositionY(getLabelPositionY() * scale + (1-scale) * pivot.y)
-        return scaled
+        return distanceSegmentPoint(start, end, center) <= radius
+                && Math.max(center.distance(start), center.distance(end)) >= radius
     }
 
+    override fun withLabel(newLabel: String) = CircleCurve(newLabel, centerX, centerY, radius)
+
+    override fun transformed(scale: Double, dx: Double, dy: Double) = CircleCurve(label, centerX * scale + dx, centerY * scale + dy, radius * scale)
+
     override fun equals(other: Any?): Boolean {
         if (other !is CircleCurve)
             return false
@@ -11,247 +11,277 @@ import math.geom2d.polygon.SimplePolygon2D
 import java.util.*
 
 /**
- * A curve whose shape is a 2D path.
+ * A curve whose shape is a 2D path, stored as packed arrays of path element kinds and their coordinates.
+ * Immutable, so copies share the arrays they do not change.
  *
  * @author Almas Baimagambetov (almaslvl@gmail.com)
  */
-class PathCurve(label: Label,
-                val path: Path) : Curve(label) {
-
-    private val cachedToString: String
+class PathCurve private constructor(label: Label,
+
+                                    /**
+                                     * Kind of each path element, the first one is [MOVE_TO], the path is implicitly closed.
+                                     */
+                                    private val kinds: ByteArray,
+
+                                    /**
+                                     * Coordinates of all path elements in order, as x, y pairs,
+                                     * control points first, then the end point.
+                                     */
+                                    private val coords: DoubleArray) : Curve(label) {
+
+    companion object {
+
+        /**
+         * Upper bound for a single path element, in case of degenerate control points.
+         */
+        private const val MAX_SEGMENTS = 100
+
+        private const val MOVE_TO: Byte = 0
+        private const val LINE_TO: Byte = 1
+        private const val QUAD_TO: Byte = 2
+        private const val CUBIC_TO: Byte = 3
+
+        private fun numCoords(kind: Byte) = when (kind) {
+            QUAD_TO -> 4
+            CUBIC_TO -> 6
+            else -> 2
+        }
 
-    init {
-        path.elements.addAll(ClosePath())
-        path.fill = Color.TRANSPARENT
+        private fun kindOf(element: PathElement): Byte = when (element) {
+            is MoveTo -> MOVE_TO
+            is LineTo -> LINE_TO
+            is QuadCurveTo -> QUAD_TO
+            is CubicCurveTo -> CUBIC_TO
+            else -> throw IllegalArgumentException("Unknown path element: $element")
+        }
 
-        cachedToString = path.elements.toString()
+        private fun coordsOf(element: PathElement): List<Double> = when (element) {
+            is MoveTo -> listOf(element.x, element.y)
+            is LineTo -> listOf(element.x, element.y)
+            is QuadCurveTo -> listOf(element.controlX, element.controlY, element.x, element.y)
+            is CubicCurveTo -> listOf(element.controlX1, element.controlY1, element.controlX2, element.controlY2, element.x, element.y)
+            else -> throw IllegalArgumentException("Unknown path element: $element")
+        }
     }
 
-    override fun computeShape(): Shape {
-        val bbox = Rectangle(10000.0, 10000.0)
-        bbox.translateX = -3000.0
-        bbox.translateY = -3000.0
+    /**
+     * Copies [path], which must start with a move to, close path elements are ignored.
+     */
+    constructor(label: Label, path: Path) : this(label,
+            path.elements.filter { it !is ClosePath }.map { kindOf(it) }.toByteArray(),
+            path.elements.filter { it !is ClosePath }.flatMap { coordsOf(it) }.toDoubleArray())
 
-        val shape = Shape.intersect(SettingsController.fxBBox, path)
-        shape.fill = Color.TRANSPARENT
-        shape.stroke = Color.DARKBLUE
-        shape.strokeWidth = 2.0
+    init {
+        if (kinds.isEmpty() || kinds[0] != MOVE_TO || kinds.drop(1).any { it == MOVE_TO })
+            throw IllegalArgumentException("Path must have a single move to, at the start")
 
-        return shape
+        if (coords.size != kinds.sumBy { numCoords(it) })
+            throw IllegalArgumentException("Expected ${kinds.sumBy { numCoords(it) }} coordinates but got ${coords.size}")
     }
 
-    override fun computePolygon(): Polygon2D {
-        val moveTo = path.elements[0] as MoveTo
+    private val hash = Objects.hash(label, Arrays.hashCode(kinds), Arrays.hashCode(coords))
 
-        val polygonPoints = arrayListOf<Point2D>()
+    /**
+     * @return a new JavaFX path of this curve
+     */
+    fun toPath(): Path {
+        val path = Path()
 
-        val p0 = Point2D(moveTo.x, moveTo.y)
-        polygonPoints.add(p0)
+        var i = 0
+        for (kind in kinds) {
+            path.elements.add(when (kind) {
+                MOVE_TO -> MoveTo(coords[i], coords[i + 1])
+                LINE_TO -> LineTo(coords[i], coords[i + 1])
+                QUAD_TO -> QuadCurveTo(coords[i], coords[i + 1], coords[i + 2], coords[i + 3])
+                else -> CubicCurveTo(coords[i], coords[i + 1], coords[i + 2], coords[i + 3], coords[i + 4], coords[i + 5])
+            })
 
-        // drop moveTo and close()
-        path.elements.drop(1).dropLast(1).forEach {
-            when (it) {
-                is QuadCurveTo -> {
-                    val smoothFactor = 10
-                    val p1 = polygonPoints.last()
-                    val p2 = Point2D(it.controlX, it.controlY)
-                    val p3 = Point2D(it.x, it.y)
-
-                    var t = 0.01
-                    while (t < 1.01) {
-
-                        polygonPoints.add(getQuadValue(p1, p2, p3, t))
-                        t += 1.0 / smoothFactor
-                    }
-
-                    polygonPoints.add(p3)
-                }
-
-                is CubicCurveTo -> {
-                    val smoothFactor = 10
-                    val p1 = polygonPoints.last()
-                    val p2 = Point2D(it.controlX1, it.controlY1)
-                    val p3 = Point2D(it.controlX2, it.controlY2)
-                    val p4 = Point2D(it.x, it.y)
-
-                    var t = 0.01
-                    while (t < 1.01) {
-
-                        polygonPoints.add(getCubicValue(p1, p2, p3, p4, t))
-                        t += 1.0 / smoothFactor
-                    }
-
-                    polygonPoints.add(p4)
-                }
-
-                is LineTo -> {
-                    polygonPoints.add(Point2D(it.x, it.y))
-                }
-
-                is ClosePath -> {
-                    // ignore
-                }
-
-                else -> {
-                    throw IllegalArgumentException("Unknown path element: $it")
-                }
-            }
+            i += numCoords(kind)
         }
 
-        return SimplePolygon2D(polygonPoints)
+        path.elements.add(ClosePath())
+        path.fill = Color.TRANSPARENT
+
+        return path
     }
 
-    private fun getQuadValue(p1: Point2D, p2: Point2D, p3: Point2D, t: Double): Point2D {
-        val x = (1 - t) * (1 - t) * p1.x() + 2 * (1 - t) * t * p2.x() + t * t * p3.x()
-        val y = (1 - t) * (1 - t) * p1.y() + 2 * (1 - t) * t * p2.y() + t * t * p3.y()
+    override fun computeShape(): Shape {
+        val shape = Shape.intersect(SettingsController.fxBBox, toPath())
+        shape.fill = Color.TRANSPARENT
+        shape.stroke = Color.DARKBLUE
+        shape.strokeWidth = 2.0
 
-        return Point2D(x, y)
+        return shape
     }
 
-    private fun getCubicValue(p1: Point2D, p2: Point2D, p3: Point2D, p4: Point2D, t: Double): Point2D {
-        val x = Math.pow(1 - t, 3.0) * p1.x + 3 * t * Math.pow(1 - t, 2.0) * p2.x + 3 * t*t * (1 - t) * p3.x + t*t*t*p4.x
-        val y = Math.pow(1 - t, 3.0) * p1.y + 3 * t * Math.pow(1 - t, 2.0) * p2.y + 3 * t*t * (1 - t) * p3.y + t*t*t*p4.y
-        return Point2D(x, y)
+    /**
+     * Level of detail of the flattened polygon, given by the max distance between a curve and its polygon.
+     */
+    enum class Detail(val flatness: Double) {
+
+        /**
+         * Enough for topology decisions, i.e. which zones exist.
+         */
+        COARSE(20.0),
+
+        /**
+         * Used for geometry by default, i.e. [groupnet.euler.CurveGeometry.polygon].
+         */
+        NORMAL(5.0),
+
+        /**
+         * For rendering and export.
+         */
+        FINE(1.0)
     }
 
-    override fun copyWithNewLabel(newLabel: String): Curve {
-        val copyPath = Path()
+    /**
+     * Polygons are cached per level of detail in [geometry], so they must not be modified.
+     *
+     * @return flattened polygon of this path with given level of detail
+     */
+    fun getPolygon(detail: Detail): Polygon2D {
+        if (detail == Detail.NORMAL)
+            return geometry.polygon
 
-        path.elements.forEach {
-            val element: PathElement = when (it) {
+        return geometry.flattened(detail.flatness) { flatten(detail.flatness) }
+    }
+
+    override fun computePolygon(): Polygon2D = flatten(Detail.NORMAL.flatness)
 
-                is QuadCurveTo -> {
-                    QuadCurveTo(it.controlX, it.controlY, it.x, it.y)
-                }
+    private fun flatten(flatness: Double): Polygon2D {
+        val polygonPoints = arrayListOf<Point2D>()
 
-                is CubicCurveTo -> {
-                    CubicCurveTo(it.controlX1, it.controlY1, it.controlX2, it.controlY2, it.x, it.y)
-                }
+        polygonPoints.add(Point2D(coords[0], coords[1]))
 
-                is LineTo -> {
-                    LineTo(it.x, it.y)
-                }
+        var i = 2
+        for (k in 1 until kinds.size) {
+            val p1 = polygonPoints.last()
 
-                is MoveTo -> {
-                    MoveTo(it.x, it.y)
-                }
+            when (kinds[k]) {
+                QUAD_TO -> flattenQuad(p1.x(), p1.y(), coords[i], coords[i + 1], coords[i + 2], coords[i + 3], flatness, polygonPoints)
 
-                is ClosePath -> {
-                    ClosePath()
-                }
+                CUBIC_TO -> flattenCubic(p1.x(), p1.y(), coords[i], coords[i + 1], coords[i + 2], coords[i + 3], coords[i + 4], coords[i + 5], flatness, polygonPoints)
 
-                else -> {
-                    throw IllegalArgumentException("Unknown path element: $it")
-                }
+                else -> polygonPoints.add(Point2D(coords[i], coords[i + 1]))
             }
 
-            copyPath.elements.add(element)
+            i += numCoords(kinds[k])
         }
 
-        val copy = PathCurve(newLabel, copyPath)
-        copy.setLabelPositionX(getLabelPositionX())
-        copy.setLabelPositionY(getLabelPositionY())
-
-        return copy
+        return SimplePolygon2D(polygonPoints)
     }
 
-    override fun translate(translate: javafx.geometry.Point2D): Curve {
-        val copyPath = Path()
-
-        path.elements.forEach {
-            val element: PathElement = when (it) {
+    /**
+     * Number of line segments such that the polygon is within [flatness] of a Bezier curve of given [degree],
+     * from the max second difference [dd] of its control points (Wang's formula).
+     */
+    private fun numSegments(degree: Int, dd: Double, flatness: Double): Int {
+        val n = Math.ceil(Math.sqrt(degree * (degree - 1) * dd / (8 * flatness))).toInt()
 
-                is QuadCurveTo -> {
-                    QuadCurveTo(it.controlX + translate.x, it.controlY + translate.y, it.x + translate.x, it.y + translate.y)
-                }
+        return Math.min(Math.max(n, 1), MAX_SEGMENTS)
+    }
 
-                is CubicCurveTo -> {
-                    CubicCurveTo(it.controlX1 + translate.x, it.controlY1 + translate.y, it.controlX2 + translate.x, it.controlY2 + translate.y, it.x + translate.x, it.y + translate.y)
-                }
+    /**
+     * Adds points of the quad curve (excluding the start point) using forward differencing.
+     */
+    private fun flattenQuad(x1: Double, y1: Double, cx: Double, cy: Double, x2: Double, y2: Double,
+                            flatness: Double, points: MutableList<Point2D>) {
 
-                is LineTo -> {
-                    LineTo(it.x + translate.x, it.y + translate.y)
-                }
+        val ax = x1 - 2 * cx + x2
+        val ay = y1 - 2 * cy + y2
 
-                is MoveTo -> {
-                    MoveTo(it.x + translate.x, it.y + translate.y)
-                }
+        val n = numSegments(2, Math.hypot(ax, ay), flatness)
+        val h = 1.0 / n
 
-                is ClosePath -> {
-                    ClosePath()
-                }
+        var x = x1
+        var y = y1
+        var dx = ax * h * h + 2 * (cx - x1) * h
+        var dy = ay * h * h + 2 * (cy - y1) * h
+        val ddx = 2 * ax * h * h
+        val ddy = 2 * ay * h * h
 
-                else -> {
-                    throw IllegalArgumentException("Unknown path element: $it")
-                }
-            }
+        for (i in 1 until n) {
+            x += dx
+            y += dy
+            dx += ddx
+            dy += ddy
 
-            copyPath.elements.add(element)
+            points.add(Point2D(x, y))
         }
 
-        val copy = PathCurve(label, copyPath)
-        copy.setLabelPositionX(getLabelPositionX() + translate.x)
-        copy.setLabelPositionY(getLabelPositionY() + translate.y)
-
-        return copy
+        // exact end point, so that consecutive segments join
+        points.add(Point2D(x2, y2))
     }
 
-    override fun scale(scale: Double, pivot: javafx.geometry.Point2D): Curve {
-        val sx = (1-scale) * pivot.x
-        val sy = (1-scale) * pivot.y
-
-        val copyPath = Path()
-
-        path.elements.forEach {
-            val element: PathElement = when (it) {
-
-                is QuadCurveTo -> {
-                    QuadCurveTo(it.controlX * scale + sx, it.controlY * scale + sy, it.x * scale + sx, it.y * scale + sy)
-                }
-
-                is CubicCurveTo -> {
-                    CubicCurveTo(it.controlX1 * scale + sx, it.controlY1 * scale + sy, it.controlX2 * scale + sx, it.controlY2 * scale + sy, it.x * scale + sx, it.y * scale + sy)
-                }
-
-                is LineTo -> {
-                    LineTo(it.x * scale + sx, it.y * scale + sy)
-                }
+    /**
+     * Adds points of the cubic curve (excluding the start point) using forward differencing.
+     */
+    private fun flattenCubic(x1: Double, y1: Double, cx1: Double, cy1: Double, cx2: Double, cy2: Double, x2: Double, y2: Double,
+                             flatness: Double, points: MutableList<Point2D>) {
+
+        val dd = Math.max(Math.hypot(x1 - 2 * cx1 + cx2, y1 - 2 * cy1 + cy2), Math.hypot(cx1 - 2 * cx2 + x2, cy1 - 2 * cy2 + y2))
+
+        val n = numSegments(3, dd, flatness)
+        val h = 1.0 / n
+        val h2 = h * h
+        val h3 = h2 * h
+
+        // polynomial coefficients, point = a t^3 + b t^2 + c t + start
+        val ax = -x1 + 3 * cx1 - 3 * cx2 + x2
+        val ay = -y1 + 3 * cy1 - 3 * cy2 + y2
+        val bx = 3 * x1 - 6 * cx1 + 3 * cx2
+        val by = 3 * y1 - 6 * cy1 + 3 * cy2
+        val cx = 3 * (cx1 - x1)
+        val cy = 3 * (cy1 - y1)
+
+        var x = x1
+        var y = y1
+        var dx = ax * h3 + bx * h2 + cx * h
+        var dy = ay * h3 + by * h2 + cy * h
+        var ddx = 6 * ax * h3 + 2 * bx * h2
+        var ddy = 6 * ay * h3 + 2 * by * h2
+        val dddx = 6 * ax * h3
+        val dddy = 6 * ay * h3
+
+        for (i in 1 until n) {
+            x += dx
+            y += dy
+            dx += ddx
+            dy += ddy
+            ddx += dddx
+            ddy += dddy
+
+            points.add(Point2D(x, y))
+        }
 
-                is MoveTo -> {
-                    MoveTo(it.x * scale + sx, it.y * scale + sy)
-                }
+        // exact end point, so that consecutive segments join
+        points.add(Point2D(x2, y2))
+    }
 
-                is ClosePath -> {
-                    ClosePath()
-                }
+    override fun withLabel(newLabel: String) = PathCurve(newLabel, kinds, coords)
 
-                else -> {
-                    throw IllegalArgumentException("Unknown path element: $it")
-                }
-            }
+    override fun transformed(scale: Double, dx: Double, dy: Double): Curve {
+        val newCoords = DoubleArray(coords.size)
 
-            copyPath.elements.add(element)
+        for (i in 0 until coords.size step 2) {
+            newCoords[i] = coords[i] * scale + dx
+            newCoords[i + 1] = coords[i + 1] * scale + dy
         }
 
-        val scaled = PathCurve(label, copyPath)
-        scaled.setLabelPositionX(getLabelPositionX() * scale + (1-scale) * pivot.x)
-        scaled.setLabelPositionY(getLabelPositionY() * scale + (1-scale) * pivot.y)
-        return scaled
+        return PathCurve(label, kinds, newCoords)
     }
 
     override fun equals(other: Any?): Boolean {
         if (other !is PathCurve)
             return false
 
-        // hack to use string version of path but effective
-        return label == other.label && cachedToString == other.cachedToString
+        return hash == other.hash && label == other.label && Arrays.equals(kinds, other.kinds) && Arrays.equals(coords, other.coords)
     }
 
-    override fun hashCode(): Int {
-        return Objects.hash(label, cachedToString)
-    }
+    override fun hashCode() = hash
 
     override fun toDebugString(): String {
-        return "$this($path)"
+        return "$this(${toPath()})"
     }
-}
\ No newline at end of file
+}
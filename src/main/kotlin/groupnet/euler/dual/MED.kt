@@ -1,30 +1,94 @@
 package groupnet.euler.dual
 
 import groupnet.algorithm.AStarEdgeRouter
+import groupnet.algorithm.ClearanceRaster
 import groupnet.algorithm.Converter
+import groupnet.algorithm.MedialAxisEdgeRouter
 import groupnet.euler.*
 import groupnet.graph.cycles.CycleFinder
 import groupnet.util.*
 import javafx.geometry.Point2D
-import javafx.scene.paint.Color
 import javafx.scene.shape.*
 import math.geom2d.polygon.SimplePolygon2D
 import java.util.*
+import java.util.concurrent.CompletableFuture
 
 /**
  * Modified Euler dual.
+ * Can be built from the MED of a previous step, see [next].
  *
  * @author Almas Baimagambetov (almaslvl@gmail.com)
  */
-class MED(private val d: EulerDiagram) {
+class MED
+private constructor(private val d: EulerDiagram,
+                    private val token: CancellationToken,
+
+                    /**
+                     * Whether anytime fallbacks may be taken when building and searching this MED.
+                     */
+                    private val allowDegradation: Boolean,
+
+                    /**
+                     * MED of the same diagram with fewer curves, whose vertices and edges can be reused.
+                     */
+                    previous: MED?) {
+
+    constructor(d: EulerDiagram,
+                token: CancellationToken = CancellationToken(),
+                allowDegradation: Boolean = true) : this(d, token, allowDegradation, null)
+
+    companion object {
+
+        /**
+         * How many cycles to enumerate before checking them when only the first found cycles are considered.
+         */
+        private const val CYCLE_BATCH_DEGRADED = 500
+    }
+
+    private sealed class PendingEdge {
+
+        /**
+         * Edge whose shape is known or that is left out.
+         */
+        class Ready(val edge: MEDEdge?) : PendingEdge()
+
+        /**
+         * Edge that needs a route between the zones of its vertices.
+         */
+        class Unrouted(val v1: MEDVertex, val v2: MEDVertex) : PendingEdge()
+    }
+
+    /**
+     * Shared by all edges not routed along the medial axis, so that the diagram is only rasterised once,
+     * and only if there are such edges.
+     */
+    private val raster by lazy { ClearanceRaster(d) }
 
     lateinit var vertices: MutableList<MEDVertex>
     lateinit var edges: MutableList<MEDEdge>
 
+    /**
+     * False if some edges were left out by the anytime mode,
+     * so a cycle may exist in the complete MED even if none is found in this one.
+     */
+    var isComplete = true
+        private set
+
     private lateinit var outsideNodes: List<MEDVertex>
 
     val ring = Circle(0.0, null)
 
+    /**
+     * Vertices of the previous MED, whose zones were not split by the curves added since,
+     * keyed by the same zones in [d].
+     */
+    private val reusedVertices = if (previous != null) findReusedVertices(previous) else emptyMap()
+
+    /**
+     * Inside edges of the previous MED, keyed by their vertices in both directions.
+     */
+    private val previousEdges = if (previous != null) previous.edges.flatMap { listOf((it.v1 to it.v2) to it, (it.v2 to it.v1) to it) }.toMap() else emptyMap()
+
     init {
         computeInsideVertices()
         computeInsideEdges()
@@ -32,16 +96,71 @@ class MED(private val d: EulerDiagram) {
         computeOutsideEdges()
     }
 
+    /**
+     * @return MED of [d], which is the diagram of this MED with more curves added.
+     * Only zones split by the new curves get new vertices and only their edges are routed again,
+     * the rest is copied from this MED
+     */
+    fun next(d: EulerDiagram): MED {
+        return MED(d, token, true, this)
+    }
+
+    private fun findReusedVertices(previous: MED): Map<Zone, MEDVertex> {
+        // left out edges would need to be created in the new MED
+        if (!previous.isComplete)
+            return emptyMap()
+
+        val previousLabels = previous.d.curves.map { it.label }
+        val newLabels = d.curves.map { it.label } - previousLabels
+
+        if (!d.curves.map { it.label }.containsAll(previousLabels))
+            return emptyMap()
+
+        val previousVertices = previous.vertices.filter { it.zone.az != azEmpty }.associateBy { it.zone.az }
+
+        // a zone split by a new curve has parts both inside and outside of it,
+        // so a zone that was not split is the only one with its abstraction in the previous diagram
+        return d.zones.groupBy { it.az - newLabels }
+                .filterValues { it.size == 1 }
+                .mapNotNull { (az, zones) -> previousVertices[az]?.let { zones[0] to it } }
+                .toMap()
+    }
+
     private fun computeInsideVertices() {
-        vertices = d.zones.map { z -> MEDVertex(z, z.visualCenter) }.toMutableList()
+        d.computeVisualCenters(d.zones.filter { it !in reusedVertices })
+
+        vertices = d.zones.map { z -> MEDVertex(z, reusedVertices[z]?.point ?: z.visualCenter) }.toMutableList()
 
         vertices.forEach { it.isShown = true }
     }
 
+    /**
+     * Edges that need routing are routed in parallel along the medial axis of their zones,
+     * or against the raster of [d] if the axis does not connect them. The rest are created in order.
+     */
     private fun computeInsideEdges() {
-        edges = combinations2(vertices)
-                .filter { (v1, v2) -> v1.zone.isTopologicallyAdjacent(v2.zone) }
-                .map { (v1, v2) -> createEdge(v1, v2) }
+        val pairs = combinations2(vertices)
+                .filter { (v1, v2) -> isReused(v1, v2) || d.isAdjacent(v1.zone, v2.zone) }
+
+        val router = MedialAxisEdgeRouter(token) { AStarEdgeRouter(token, raster) }
+
+        // degradation is decided in order, so that the same edges are left out as when routing one by one
+        val pending = pairs.map { (v1, v2) ->
+            token.checkpoint()
+
+            if (isReused(v1, v2))
+                PendingEdge.Ready(reuseEdge(v1, v2))
+            else
+                createEdge(v1, v2)
+        }
+
+        edges = pending.map { edge ->
+            when (edge) {
+                is PendingEdge.Ready -> CompletableFuture.completedFuture(edge.edge)
+                is PendingEdge.Unrouted -> async { MEDEdge(edge.v1, edge.v2, router.route(edge.v1.zone, edge.v2.zone, edge.v1.point, edge.v2.point)) }
+            }
+        }
+                .mapNotNull { it.await() }
                 .toMutableList()
 
         edges.forEach { it.isShown = true }
@@ -60,13 +179,13 @@ class MED(private val d: EulerDiagram) {
         val vector = firstPt.subtract(polygonMED.vertex(0).x(), polygonMED.vertex(0).y())
 
         // make "distinct" nodes so that jgrapht doesn't think it's a loop
-        outsideNodes = polygonMED.vertices().map { MEDVertex(Zone(azEmpty, d.curves), Point2D(it.x(), it.y()).add(vector)) }
+        outsideNodes = polygonMED.vertices().map { MEDVertex(Zone(azEmpty, d.curveIndex), Point2D(it.x(), it.y()).add(vector)) }
     }
 
     private fun computeOutsideEdges() {
         // add the adjacent edges between outside and inside
 
-        vertices.filter { it.zone.isTopologicallyAdjacent(d.outsideZone) }
+        vertices.filter { d.isAdjacent(it.zone, d.outsideZone) }
                 .forEach { node ->
                     val closestMEDNode = outsideNodes.minBy { it.distance(node) }!!
 
@@ -86,15 +205,31 @@ class MED(private val d: EulerDiagram) {
     }
 
     /**
-     * Creates an Euler dual edge between [v1] and [v2] represented by a polyline.
+     * Neither zone was split by the new curves, so the zones are adjacent only if they were before
+     * and an edge between them does not cross the new curves.
      */
-    private fun createEdge(v1: MEDVertex, v2: MEDVertex): MEDEdge {
-        Log.d("Creating edge: ${v1.zone} - ${v2.zone}")
+    private fun isReused(v1: MEDVertex, v2: MEDVertex) = v1.zone in reusedVertices && v2.zone in reusedVertices
 
-        val p1 = v1.zone.visualCenter
-        val p2 = v2.zone.visualCenter
+    private fun reuseEdge(v1: MEDVertex, v2: MEDVertex): MEDEdge? {
+        if (!v1.zone.az.isNeighbour(v2.zone.az))
+            return null
 
-        val line = Line(p1.x, p1.y, p2.x, p2.y)
+        val edge = previousEdges[reusedVertices[v1.zone]!! to reusedVertices[v2.zone]!!] ?: return null
+
+        return MEDEdge(v1, v2, edge.shape)
+    }
+
+    /**
+     * Creates an Euler dual edge between [v1] and [v2] represented by a line, if one is enough.
+     *
+     * @return the edge, null if it was left out by the anytime mode, or the edge to route
+     */
+    private fun createEdge(v1: MEDVertex, v2: MEDVertex): PendingEdge {
+        Log.d("Creating edge: ${v1.zone} - ${v2.zone}")
+
+        // vertices kept from the previous step may not be at the visual centres of their zones
+        val p1 = v1.point
+        val p2 = v2.point
 
         // the new curve segment must pass through the straddled curve
         // and only through that curve
@@ -102,43 +237,26 @@ class MED(private val d: EulerDiagram) {
 
         Log.d("Searching ${v1.zone} - ${v2.zone} : $curve")
 
-        if (doesSegmentPassThroughCurveOnly(line, curve, C(d))) {
-            return MEDEdge(v1, v2, line)
+        if (doesSegmentPassThroughCurveOnly(p1, p2, curve, C(d))) {
+            return PendingEdge.Ready(MEDEdge(v1, v2, Line(p1.x, p1.y, p2.x, p2.y)))
         }
 
-        val polyline = AStarEdgeRouter().route(v1.zone, v2.zone)
+        if (allowDegradation && token.degrade(Degradation.STRAIGHT_EDGES)) {
+            Log.d("Leaving out edge ${v1.zone} - ${v2.zone}, no time to route")
 
-        return MEDEdge(v1, v2, polyline)
-    }
+            isComplete = false
+            return PendingEdge.Ready(null)
+        }
 
-    /**
-     * Does curve segment [segment] only pass through [curve] and no other curve in [curves].
-     */
-    private fun doesSegmentPassThroughCurveOnly(segment: Shape, curve: Curve, curves: Collection<Curve>): Boolean {
-        return curves.minus(curve).none { segmentOverlapsCurve(segment, it) }
-                && segmentOverlapsCurve(segment, curve)
+        return PendingEdge.Unrouted(v1, v2)
     }
 
     /**
-     * Does not alter any shape data.
-     *
-     * @return true iff [segment] (line-ish shape) overlaps (crosses) with a closed [curve]
+     * Does segment from [start] to [end] only pass through [curve] and no other curve in [curves].
      */
-    private fun segmentOverlapsCurve(segment: Shape, curve: Curve): Boolean {
-        val curveShape = curve.getShape()
-
-        val originalFill = curveShape.fill
-        val originalStroke = curveShape.stroke
-
-        curveShape.fill = null
-        curveShape.stroke = Color.BROWN
-
-        val doesOverlap = !Shape.intersect(curveShape, segment).layoutBounds.isEmpty
-
-        curveShape.fill = originalFill
-        curveShape.stroke = originalStroke
-
-        return doesOverlap
+    private fun doesSegmentPassThroughCurveOnly(start: Point2D, end: Point2D, curve: Curve, curves: Collection<Curve>): Boolean {
+        return curves.minus(curve).none { it.intersectsSegment(start, end) }
+                && curve.intersectsSegment(start, end)
     }
 
     /**
@@ -170,43 +288,52 @@ class MED(private val d: EulerDiagram) {
     }
 
     fun computeCycle(zonesToSplit: Set<AbstractZone>, azPair: Pair<AbstractZone, AbstractZone>?): MEDCycle? {
-        if (azPair == null)
-            return computeCycle(zonesToSplit)
-
         Log.d("Computing cycle for $zonesToSplit")
 
-        Profiler.start("Enumerating cycles")
-        val cycles = enumerateCycles()
-        Profiler.end("Enumerating cycles")
-
-        Log.d("Found cycles: ${cycles.size} for $zonesToSplit")
+        if (allowDegradation && token.degrade(Degradation.FIRST_FOUND_CYCLE)) {
+            // a batch without a valid cycle does not restart the enumeration, it continues with the next batch
+            return newCycleFinder().searchCycles(CYCLE_BATCH_DEGRADED) { findCycle(it, zonesToSplit, azPair) }
+        }
 
-        //        check that cycle nodes are equal or superset of what is required      cycle selection      and is valid
-        return cycles.find { it.nodes.map { it.zone.az }.containsAll(zonesToSplit) && isValid(azPair, it) }
+        return findCycle(enumerateCycles(), zonesToSplit, azPair)
     }
 
     fun computeCycle(zonesToSplit: Set<AbstractZone>): MEDCycle? {
-        Log.d("Computing cycle for $zonesToSplit")
-
-        Profiler.start("Enumerating cycles")
-        val cycles = enumerateCycles()
-        Profiler.end("Enumerating cycles")
+        return computeCycle(zonesToSplit, null)
+    }
 
+    private fun findCycle(cycles: List<MEDCycle>, zonesToSplit: Set<AbstractZone>, azPair: Pair<AbstractZone, AbstractZone>?): MEDCycle? {
         Log.d("Found cycles: ${cycles.size} for $zonesToSplit")
 
-        //        check that cycle nodes are equal or superset of what is required        and is valid
-        return cycles.find { it.nodes.map { it.zone.az }.containsAll(zonesToSplit) && isValid(null, it) }
+        // check that cycle nodes are equal or superset of what is required, this is cheap so done first
+        // validity of the remaining cycles is checked in parallel, the shortest valid cycle still wins
+        return cycles.filter { it.nodes.map { it.zone.az }.containsAll(zonesToSplit) }
+                .parallelFind {
+                    token.checkpoint()
+
+                    isValid(azPair, it)
+                }
     }
 
     /**
      * Enumerate all simple cycles.
      */
     private fun enumerateCycles(): List<MEDCycle> {
-        val graph = CycleFinder<MEDVertex, MEDEdge>(MEDEdge::class.java)
+        Profiler.start("Enumerating cycles")
+
+        val cycles = newCycleFinder().computeCycles()
+
+        Profiler.end("Enumerating cycles")
+
+        return cycles
+    }
+
+    private fun newCycleFinder(): CycleFinder<MEDVertex, MEDEdge> {
+        val graph = CycleFinder<MEDVertex, MEDEdge>(MEDEdge::class.java, token)
         vertices.forEach { graph.addVertex(it) }
         edges.forEach { graph.addEdge(it.v1, it.v2, it) }
 
-        return graph.computeCycles()
+        return graph
     }
 
     /**
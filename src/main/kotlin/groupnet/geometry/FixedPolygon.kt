@@ -0,0 +1,64 @@
+package groupnet.geometry
+
+import math.geom2d.Point2D
+import math.geom2d.polygon.LinearRing2D
+import math.geom2d.polygon.MultiPolygon2D
+import math.geom2d.polygon.Polygon2D
+import math.geom2d.polygon.SimplePolygon2D
+
+/**
+ * A polygon, possibly with holes or several components, whose vertices are on a fixed-point integer grid.
+ * Rings are interpreted with the even-odd rule, so their orientation does not matter.
+ * Immutable.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class FixedPolygon(
+
+        /**
+         * Each ring is a sequence of x, y coordinates in grid units.
+         */
+        val rings: List<LongArray>) {
+
+    companion object {
+
+        /**
+         * Grid units per unit, a power of 2 so that converting back to double is exact.
+         */
+        const val SCALE = 1024.0
+
+        @JvmField val EMPTY = FixedPolygon(emptyList())
+
+        @JvmStatic fun of(polygon: Polygon2D): FixedPolygon {
+            return FixedPolygon(polygon.contours().map { ring ->
+                val coords = LongArray(ring.vertexNumber() * 2)
+
+                var i = 0
+                for (v in ring.vertices()) {
+                    coords[i++] = toFixed(v.x())
+                    coords[i++] = toFixed(v.y())
+                }
+
+                coords
+            })
+        }
+
+        @JvmStatic fun toFixed(value: Double) = Math.round(value * SCALE)
+
+        @JvmStatic fun toDouble(value: Long) = value / SCALE
+    }
+
+    fun isEmpty() = rings.isEmpty()
+
+    /**
+     * Same conventions as javaGeom boolean operations: a single ring is a simple polygon,
+     * otherwise a multi polygon, outer rings are counter-clockwise and holes are clockwise.
+     */
+    fun toPolygon2D(): Polygon2D {
+        val linearRings = rings.map { ring ->
+            LinearRing2D((0 until ring.size / 2).map { Point2D(toDouble(ring[2 * it]), toDouble(ring[2 * it + 1])) })
+        }
+
+        return if (linearRings.size == 1) SimplePolygon2D(linearRings[0].vertices()) else MultiPolygon2D(linearRings)
+    }
+}
@@ -0,0 +1,76 @@
+package groupnet.geometry
+
+/**
+ * Binary min heap of nodes by priority, without boxing.
+ * A node may be added again with a lower priority, stale entries are skipped by the caller.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+internal class NodeHeap {
+    private var nodes = IntArray(64)
+    private var priorities = DoubleArray(64)
+    private var size = 0
+
+    fun isNotEmpty() = size > 0
+
+    /**
+     * @return priority of the node that [poll] returns next
+     */
+    fun peekPriority() = priorities[0]
+
+    fun add(node: Int, priority: Double) {
+        if (size == nodes.size) {
+            nodes = nodes.copyOf(size * 2)
+            priorities = priorities.copyOf(size * 2)
+        }
+
+        var i = size++
+
+        while (i > 0) {
+            val p = (i - 1) / 2
+
+            if (priorities[p] <= priority)
+                break
+
+            nodes[i] = nodes[p]
+            priorities[i] = priorities[p]
+            i = p
+        }
+
+        nodes[i] = node
+        priorities[i] = priority
+    }
+
+    fun poll(): Int {
+        val result = nodes[0]
+
+        size--
+
+        val node = nodes[size]
+        val priority = priorities[size]
+
+        var i = 0
+
+        while (true) {
+            var child = 2 * i + 1
+
+            if (child >= size)
+                break
+
+            if (child + 1 < size && priorities[child + 1] < priorities[child])
+                child++
+
+            if (priorities[child] >= priority)
+                break
+
+            nodes[i] = nodes[child]
+            priorities[i] = priorities[child]
+            i = child
+        }
+
+        nodes[i] = node
+        priorities[i] = priority
+
+        return result
+    }
+}
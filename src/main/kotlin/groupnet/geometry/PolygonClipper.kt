@@ -0,0 +1,528 @@
+package groupnet.geometry
+
+import groupnet.util.Bug
+import math.geom2d.polygon.Polygon2D
+
+/**
+ * Boolean operations on polygons with holes, computed on a fixed-point integer grid.
+ *
+ * All edges of both operands are split at their intersections, so that they only meet at end points.
+ * Each piece then separates two faces, and is kept if the result of the operation differs between them,
+ * oriented so that the result is on its left.
+ * Orientation tests use exact integer arithmetic, only new intersection points are rounded to the grid.
+ * Rounding moves pieces slightly, so pieces are split again around rounded points until nothing changes,
+ * as in snap rounding: a piece that passes through the unit square around a rounded point is split at it.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+object PolygonClipper {
+
+    /**
+     * Offset from an edge midpoint, in grid units, to test which faces it separates.
+     */
+    private const val SIDE_OFFSET = 1e-3
+
+    /**
+     * Splitting around rounded points rounds new points in turn, which almost never happens more than once.
+     */
+    private const val MAX_PASSES = 8
+
+    fun intersection(p1: Polygon2D, p2: Polygon2D) = intersection(FixedPolygon.of(p1), FixedPolygon.of(p2)).toPolygon2D()
+
+    fun union(p1: Polygon2D, p2: Polygon2D) = union(FixedPolygon.of(p1), FixedPolygon.of(p2)).toPolygon2D()
+
+    fun difference(p1: Polygon2D, p2: Polygon2D) = difference(FixedPolygon.of(p1), FixedPolygon.of(p2)).toPolygon2D()
+
+    fun intersection(p1: FixedPolygon, p2: FixedPolygon) = clip(p1, p2) { in1, in2 -> in1 && in2 }
+
+    fun union(p1: FixedPolygon, p2: FixedPolygon) = clip(p1, p2) { in1, in2 -> in1 || in2 }
+
+    fun difference(p1: FixedPolygon, p2: FixedPolygon) = clip(p1, p2) { in1, in2 -> in1 && !in2 }
+
+    private fun clip(p1: FixedPolygon, p2: FixedPolygon, operation: (Boolean, Boolean) -> Boolean): FixedPolygon {
+        // points rounded off the segments they were on
+        val rounded = hashSetOf<Long>()
+
+        var edges = Segments.of(p1, p2).split(rounded)
+
+        if (rounded.isNotEmpty()) {
+            for (pass in 1..MAX_PASSES) {
+                val segments = Segments.of(edges)
+
+                edges = segments.split(rounded)
+
+                if (segments.numSplits == 0)
+                    break
+            }
+        }
+
+        // split edges rather than original segments, since rounding of intersection points moves them slightly
+        val classifier1 = ParityIndex(edges, 0)
+        val classifier2 = ParityIndex(edges, 1)
+
+        val result = ResultEdges()
+
+        edges.forEach { (key, counts) ->
+            val odd1 = counts[0] % 2 == 1
+            val odd2 = counts[1] % 2 == 1
+
+            // an edge repeated an even number of times does not separate anything
+            if (!odd1 && !odd2)
+                return@forEach
+
+            val x1 = unpackX(key.from)
+            val y1 = unpackY(key.from)
+            val x2 = unpackX(key.to)
+            val y2 = unpackY(key.to)
+
+            val length = Math.hypot((x2 - x1).toDouble(), (y2 - y1).toDouble())
+
+            // a point just to the left of the edge midpoint
+            val x = (x1 + x2) / 2.0 - (y2 - y1) / length * SIDE_OFFSET
+            val y = (y1 + y2) / 2.0 + (x2 - x1) / length * SIDE_OFFSET
+
+            val left1 = classifier1.isInside(x, y)
+            val left2 = classifier2.isInside(x, y)
+
+            val left = operation(left1, left2)
+            val right = operation(left1 xor odd1, left2 xor odd2)
+
+            if (left != right) {
+                if (left) result.add(key.from, key.to) else result.add(key.to, key.from)
+            }
+        }
+
+        return FixedPolygon(result.rings())
+    }
+
+    private fun pack(x: Long, y: Long) = (x shl 32) or (y and 0xFFFFFFFFL)
+
+    private fun unpackX(p: Long) = p shr 32
+
+    private fun unpackY(p: Long) = p.toInt().toLong()
+
+    /**
+     * Sign of the cross product of (b - a) and (c - a), exact for grid coordinates.
+     */
+    private fun orientation(ax: Long, ay: Long, bx: Long, by: Long, cx: Long, cy: Long): Int {
+        return java.lang.Long.signum((bx - ax) * (cy - ay) - (by - ay) * (cx - ax))
+    }
+
+    /**
+     * Undirected edge between two packed points, [from] < [to].
+     */
+    private data class EdgeKey(val from: Long, val to: Long)
+
+    /**
+     * Non-zero length segments of both operands, each from its lexicographically smaller end point.
+     */
+    private class Segments {
+
+        companion object {
+
+            fun of(p1: FixedPolygon, p2: FixedPolygon): Segments {
+                val segments = Segments()
+                segments.add(p1, 0)
+                segments.add(p2, 1)
+                return segments
+            }
+
+            /**
+             * Edges repeated an even number of times by an operand are left out, since they do not change the result.
+             */
+            fun of(edges: Map<EdgeKey, IntArray>): Segments {
+                val segments = Segments()
+
+                edges.forEach { (key, counts) ->
+                    for (id in 0..1) {
+                        if (counts[id] % 2 == 1)
+                            segments.add(unpackX(key.from), unpackY(key.from), unpackX(key.to), unpackY(key.to), id)
+                    }
+                }
+
+                return segments
+            }
+        }
+
+        var size = 0
+
+        var x1 = LongArray(64)
+        var y1 = LongArray(64)
+        var x2 = LongArray(64)
+        var y2 = LongArray(64)
+        var owner = IntArray(64)
+
+        /**
+         * Number of points that segments were split at by the last [split].
+         */
+        var numSplits = 0
+
+        private fun add(polygon: FixedPolygon, id: Int) {
+            polygon.rings.forEach { ring ->
+                val n = ring.size / 2
+
+                for (i in 0 until n) {
+                    val j = (i + 1) % n
+
+                    add(ring[2 * i], ring[2 * i + 1], ring[2 * j], ring[2 * j + 1], id)
+                }
+            }
+        }
+
+        private fun add(ax: Long, ay: Long, bx: Long, by: Long, id: Int) {
+            if (ax == bx && ay == by)
+                return
+
+            if (size == x1.size) {
+                x1 = x1.copyOf(size * 2)
+                y1 = y1.copyOf(size * 2)
+                x2 = x2.copyOf(size * 2)
+                y2 = y2.copyOf(size * 2)
+                owner = owner.copyOf(size * 2)
+            }
+
+            val swap = ax > bx || ax == bx && ay > by
+
+            x1[size] = if (swap) bx else ax
+            y1[size] = if (swap) by else ay
+            x2[size] = if (swap) ax else bx
+            y2[size] = if (swap) ay else by
+            owner[size] = id
+            size++
+        }
+
+        /**
+         * Segments are also split at points of [rounded] whose unit square they pass through.
+         *
+         * @param rounded points rounded off their segments so far, new ones are added
+         * @return pieces of all segments split at intersections, with the number of times each operand has them
+         */
+        fun split(rounded: MutableSet<Long>): Map<EdgeKey, IntArray> {
+            val splits = arrayOfNulls<MutableList<Long>>(size)
+
+            fun addSplit(i: Int, x: Long, y: Long) {
+                if (x == x1[i] && y == y1[i] || x == x2[i] && y == y2[i])
+                    return
+
+                val list = splits[i] ?: arrayListOf<Long>().also { splits[i] = it }
+                list.add(pack(x, y))
+                numSplits++
+            }
+
+            // sweep along x, only segments with overlapping x ranges can intersect
+            val order = (0 until size).sortedBy { x1[it] }
+
+            // segments reaching the sweep line are active[first until last], ordered by x2,
+            // so that segments left behind are dropped from the front
+            val active = IntArray(size)
+            var first = 0
+            var last = 0
+
+            for (i in order) {
+                while (first < last && x2[active[first]] < x1[i])
+                    first++
+
+                for (k in first until last) {
+                    val j = active[k]
+
+                    if (Math.max(y1[i], y2[i]) < Math.min(y1[j], y2[j]) || Math.max(y1[j], y2[j]) < Math.min(y1[i], y2[i]))
+                        continue
+
+                    intersect(i, j, rounded, ::addSplit)
+                }
+
+                var k = last++
+                while (k > first && x2[active[k - 1]] > x2[i]) {
+                    active[k] = active[k - 1]
+                    k--
+                }
+
+                active[k] = i
+            }
+
+            val edges = hashMapOf<EdgeKey, IntArray>()
+
+            for (i in 0 until size) {
+                val points = splits[i]
+
+                // in order along the segment, also for points rounded slightly off it
+                val path = if (points == null) listOf(pack(x1[i], y1[i]), pack(x2[i], y2[i])) else
+                    (points.sortedBy { (unpackX(it) - x1[i]) * (x2[i] - x1[i]) + (unpackY(it) - y1[i]) * (y2[i] - y1[i]) } + pack(x2[i], y2[i]))
+                            .let { listOf(pack(x1[i], y1[i])) + it }
+                            .distinct()
+
+                for (k in 0 until path.size - 1) {
+                    val a = path[k]
+                    val b = path[k + 1]
+
+                    val key = if (less(a, b)) EdgeKey(a, b) else EdgeKey(b, a)
+
+                    edges.getOrPut(key) { IntArray(2) }[owner[i]]++
+                }
+            }
+
+            return edges
+        }
+
+        private fun less(a: Long, b: Long) = unpackX(a) < unpackX(b) || unpackX(a) == unpackX(b) && unpackY(a) < unpackY(b)
+
+        private fun intersect(i: Int, j: Int, rounded: MutableSet<Long>, addSplit: (Int, Long, Long) -> Unit) {
+            // same order regardless of sweep, so that the same pair always gives the same rounded point
+            val s = if (compare(i, j) < 0) i else j
+            val t = if (s == i) j else i
+
+            val o1 = orientation(x1[s], y1[s], x2[s], y2[s], x1[t], y1[t])
+            val o2 = orientation(x1[s], y1[s], x2[s], y2[s], x2[t], y2[t])
+            val o3 = orientation(x1[t], y1[t], x2[t], y2[t], x1[s], y1[s])
+            val o4 = orientation(x1[t], y1[t], x2[t], y2[t], x2[s], y2[s])
+
+            if (o1 * o2 < 0 && o3 * o4 < 0) {
+                val dxs = x2[s] - x1[s]
+                val dys = y2[s] - y1[s]
+                val dxt = x2[t] - x1[t]
+                val dyt = y2[t] - y1[t]
+
+                val denominator = dxs * dyt - dys * dxt
+                val numerator = (x1[t] - x1[s]) * dyt - (y1[t] - y1[s]) * dxt
+
+                val ratio = numerator.toDouble() / denominator
+
+                val x = x1[s] + Math.round(ratio * dxs)
+                val y = y1[s] + Math.round(ratio * dys)
+
+                if (orientation(x1[s], y1[s], x2[s], y2[s], x, y) != 0 || orientation(x1[t], y1[t], x2[t], y2[t], x, y) != 0) {
+                    rounded.add(pack(x, y))
+                }
+
+                addSplit(s, x, y)
+                addSplit(t, x, y)
+                return
+            }
+
+            // rounded end points that the other segment passes close to, which it is snapped to
+            if (pack(x1[t], y1[t]) in rounded && passesThroughPixel(s, x1[t], y1[t])) addSplit(s, x1[t], y1[t])
+            if (pack(x2[t], y2[t]) in rounded && passesThroughPixel(s, x2[t], y2[t])) addSplit(s, x2[t], y2[t])
+            if (pack(x1[s], y1[s]) in rounded && passesThroughPixel(t, x1[s], y1[s])) addSplit(t, x1[s], y1[s])
+            if (pack(x2[s], y2[s]) in rounded && passesThroughPixel(t, x2[s], y2[s])) addSplit(t, x2[s], y2[s])
+
+            // end points that touch the other segment, including collinear overlaps
+            if (o1 == 0 && isWithin(s, x1[t], y1[t])) addSplit(s, x1[t], y1[t])
+            if (o2 == 0 && isWithin(s, x2[t], y2[t])) addSplit(s, x2[t], y2[t])
+            if (o3 == 0 && isWithin(t, x1[s], y1[s])) addSplit(t, x1[s], y1[s])
+            if (o4 == 0 && isWithin(t, x2[s], y2[s])) addSplit(t, x2[s], y2[s])
+        }
+
+        /**
+         * @return true if segment [i] passes through the unit square around grid point (x, y)
+         */
+        private fun passesThroughPixel(i: Int, x: Long, y: Long): Boolean {
+            // doubled, so that corners of the square are on the grid
+            val ax = 2 * x1[i]
+            val ay = 2 * y1[i]
+            val bx = 2 * x2[i]
+            val by = 2 * y2[i]
+
+            if (ax > 2 * x + 1 || bx < 2 * x - 1 || Math.min(ay, by) > 2 * y + 1 || Math.max(ay, by) < 2 * y - 1)
+                return false
+
+            val o1 = orientation(ax, ay, bx, by, 2 * x - 1, 2 * y - 1)
+            val o2 = orientation(ax, ay, bx, by, 2 * x + 1, 2 * y - 1)
+            val o3 = orientation(ax, ay, bx, by, 2 * x + 1, 2 * y + 1)
+            val o4 = orientation(ax, ay, bx, by, 2 * x - 1, 2 * y + 1)
+
+            // the square is not entirely on one side of the line
+            return !(o1 > 0 && o2 > 0 && o3 > 0 && o4 > 0 || o1 < 0 && o2 < 0 && o3 < 0 && o4 < 0)
+        }
+
+        private fun compare(i: Int, j: Int): Int {
+            return compareValuesBy(i, j, { x1[it] }, { y1[it] }, { x2[it] }, { y2[it] })
+        }
+
+        /**
+         * @return true if collinear point (x, y) is strictly between the end points of segment [i]
+         */
+        private fun isWithin(i: Int, x: Long, y: Long): Boolean {
+            val afterStart = x > x1[i] || x == x1[i] && y > y1[i]
+            val beforeEnd = x < x2[i] || x == x2[i] && y < y2[i]
+
+            return afterStart && beforeEnd
+        }
+    }
+
+    /**
+     * Even-odd point in polygon test for the edges of one operand, bucketed by y.
+     */
+    private class ParityIndex(edges: Map<EdgeKey, IntArray>, id: Int) {
+
+        private val x1: LongArray
+        private val y1: LongArray
+        private val x2: LongArray
+        private val y2: LongArray
+
+        private val minY: Long
+        private val bucketHeight: Double
+        private val buckets: Array<MutableList<Int>>
+
+        init {
+            // an edge repeated an even number of times does not change parity
+            val own = edges.filter { it.value[id] % 2 == 1 }.keys.toList()
+
+            x1 = LongArray(own.size) { unpackX(own[it].from) }
+            y1 = LongArray(own.size) { unpackY(own[it].from) }
+            x2 = LongArray(own.size) { unpackX(own[it].to) }
+            y2 = LongArray(own.size) { unpackY(own[it].to) }
+
+            minY = own.indices.map { Math.min(y1[it], y2[it]) }.min() ?: 0L
+            val maxY = own.indices.map { Math.max(y1[it], y2[it]) }.max() ?: 0L
+
+            val numBuckets = Math.max(1, Math.sqrt(own.size.toDouble()).toInt())
+
+            bucketHeight = Math.max(1.0, (maxY - minY + 1).toDouble() / numBuckets)
+            buckets = Array(numBuckets) { arrayListOf<Int>() }
+
+            own.indices.forEach {
+                val from = bucket(Math.min(y1[it], y2[it]).toDouble())
+                val to = bucket(Math.max(y1[it], y2[it]).toDouble())
+
+                for (b in from..to) {
+                    buckets[b].add(it)
+                }
+            }
+        }
+
+        private fun bucket(y: Double) = Math.min(buckets.size - 1, Math.max(0, ((y - minY) / bucketHeight).toInt()))
+
+        fun isInside(x: Double, y: Double): Boolean {
+            var inside = false
+
+            for (i in buckets[bucket(y)]) {
+                val ax = x1[i].toDouble()
+                val ay = y1[i].toDouble()
+                val bx = x2[i].toDouble()
+                val by = y2[i].toDouble()
+
+                if ((ay > y) != (by > y) && x < ax + (y - ay) * (bx - ax) / (by - ay))
+                    inside = !inside
+            }
+
+            return inside
+        }
+    }
+
+    /**
+     * Directed edges of the result, with the result on their left, linked into rings.
+     */
+    private class ResultEdges {
+
+        private val from = arrayListOf<Long>()
+        private val to = arrayListOf<Long>()
+        private val outgoing = hashMapOf<Long, MutableList<Int>>()
+
+        fun add(a: Long, b: Long) {
+            outgoing.getOrPut(a) { arrayListOf() }.add(from.size)
+            from.add(a)
+            to.add(b)
+        }
+
+        fun rings(): List<LongArray> {
+            val used = BooleanArray(from.size)
+
+            val rings = arrayListOf<LongArray>()
+
+            for (start in 0 until from.size) {
+                if (used[start])
+                    continue
+
+                val ring = arrayListOf<Long>()
+                var edge = start
+
+                while (true) {
+                    used[edge] = true
+                    ring.add(from[edge])
+
+                    val next = next(edge)
+
+                    if (next == start)
+                        break
+
+                    // pieces are split around rounded points, so that they do not cross
+                    if (next < 0 || used[next])
+                        throw Bug("Result ring is not closed")
+
+                    edge = next
+                }
+
+                simplify(ring)?.let { rings.add(it) }
+            }
+
+            return rings.sortedWith(compareBy<LongArray>({ -maxX(it) }, { -maxY(it) }))
+        }
+
+        /**
+         * Among outgoing edges at the end of [edge], the first one clockwise from the way back,
+         * so that rings touching at a vertex stay separate.
+         */
+        private fun next(edge: Int): Int {
+            val v = to[edge]
+            val candidates = outgoing[v] ?: return -1
+
+            val back = angle(v, from[edge])
+
+            return candidates.minBy {
+                val clockwise = back - angle(v, to[it])
+
+                if (clockwise <= 0) clockwise + 2 * Math.PI else clockwise
+            } ?: -1
+        }
+
+        private fun angle(from: Long, to: Long): Double {
+            return Math.atan2((unpackY(to) - unpackY(from)).toDouble(), (unpackX(to) - unpackX(from)).toDouble())
+        }
+
+        /**
+         * Removes collinear vertices and starts from the vertex with max x, then max y.
+         *
+         * @return ring coordinates, or null if the ring has no area
+         */
+        private fun simplify(ring: List<Long>): LongArray? {
+            val points = ArrayList(ring)
+
+            var changed = true
+            while (changed && points.size >= 3) {
+                changed = false
+
+                var i = 0
+                while (i < points.size && points.size >= 3) {
+                    val a = points[(i + points.size - 1) % points.size]
+                    val b = points[i]
+                    val c = points[(i + 1) % points.size]
+
+                    if (orientation(unpackX(a), unpackY(a), unpackX(b), unpackY(b), unpackX(c), unpackY(c)) == 0) {
+                        points.removeAt(i)
+                        changed = true
+                    } else {
+                        i++
+                    }
+                }
+            }
+
+            if (points.size < 3)
+                return null
+
+            val first = points.indices.maxWith(compareBy({ unpackX(points[it]) }, { unpackY(points[it]) }))!!
+
+            val coords = LongArray(points.size * 2)
+            for (k in 0 until points.size) {
+                val p = points[(first + k) % points.size]
+                coords[2 * k] = unpackX(p)
+                coords[2 * k + 1] = unpackY(p)
+            }
+
+            return coords
+        }
+
+        private fun maxX(ring: LongArray) = (0 until ring.size / 2).map { ring[2 * it] }.max()!!
+
+        private fun maxY(ring: LongArray) = (0 until ring.size / 2).map { ring[2 * it + 1] }.max()!!
+    }
+}
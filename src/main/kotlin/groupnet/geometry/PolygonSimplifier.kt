@@ -0,0 +1,315 @@
+package groupnet.geometry
+
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Simplifies polygons whose boundaries run along given rings, e.g. zones along the curves of a diagram,
+ * using Ramer-Douglas-Peucker on each chain of the boundary.
+ *
+ * A chain runs between anchors, which are vertices where the boundary leaves its ring,
+ * such as crossings of rings. Two polygons that share a chain simplify it the same way,
+ * since a chain is always simplified in the same direction, so neighbours keep sharing their vertices.
+ * A shortcut is only taken if it crosses no other ring segment, so the result has the same topology
+ * as long as the tolerance is small compared to the distance between rings.
+ * Immutable once built, so it can be shared between threads.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class PolygonSimplifier(rings: List<FixedPolygon>,
+
+                        /**
+                         * Tolerance to simplify with and where to count vertices.
+                         */
+                        private val simplification: Simplification = Simplification()) {
+
+    private companion object {
+        fun pack(x: Long, y: Long) = (x shl 32) or (y and 0xFFFFFFFFL)
+    }
+
+    // each vertex of the rings maps to pairs of its previous and next vertices, one pair per occurrence
+    private val neighbours = hashMapOf<Long, LongArray>()
+
+    // segments of the rings, from (x0, y0) to (x1, y1)
+    private val x0: LongArray
+    private val y0: LongArray
+    private val x1: LongArray
+    private val y1: LongArray
+
+    private val segments: RTree
+
+    init {
+        val coords = rings.flatMap { it.rings }
+
+        val numSegments = coords.sumBy { it.size / 2 }
+
+        x0 = LongArray(numSegments)
+        y0 = LongArray(numSegments)
+        x1 = LongArray(numSegments)
+        y1 = LongArray(numSegments)
+
+        var s = 0
+        for (ring in coords) {
+            val n = ring.size / 2
+
+            for (i in 0 until n) {
+                val prev = (i + n - 1) % n
+                val next = (i + 1) % n
+
+                val key = pack(ring[2 * i], ring[2 * i + 1])
+                val pair = longArrayOf(pack(ring[2 * prev], ring[2 * prev + 1]), pack(ring[2 * next], ring[2 * next + 1]))
+
+                neighbours[key] = neighbours[key]?.plus(pair) ?: pair
+
+                x0[s] = ring[2 * i]
+                y0[s] = ring[2 * i + 1]
+                x1[s] = ring[2 * next]
+                y1[s] = ring[2 * next + 1]
+                s++
+            }
+        }
+
+        segments = RTree(
+                DoubleArray(numSegments) { Math.min(x0[it], x1[it]).toDouble() },
+                DoubleArray(numSegments) { Math.min(y0[it], y1[it]).toDouble() },
+                DoubleArray(numSegments) { Math.max(x0[it], x1[it]).toDouble() },
+                DoubleArray(numSegments) { Math.max(y0[it], y1[it]).toDouble() }
+        )
+    }
+
+    /**
+     * Vertices in [anchors] are kept, e.g. vertices of a boundary that was simplified before.
+     *
+     * @return [polygon] with chains simplified to within the tolerance of [simplification]
+     */
+    @JvmOverloads fun simplify(polygon: FixedPolygon, anchors: Set<Long> = emptySet()): FixedPolygon {
+        val tolerance = simplification.tolerance
+
+        if (tolerance <= 0)
+            return polygon
+
+        val result = FixedPolygon(polygon.rings.map { simplifyRing(it, anchors, tolerance * FixedPolygon.SCALE) })
+
+        simplification.count(polygon, result)
+
+        return result
+    }
+
+    /**
+     * @return keys of all vertices of [polygon], for use as anchors
+     */
+    fun vertexKeys(polygon: FixedPolygon): Set<Long> {
+        return polygon.rings.flatMapTo(hashSetOf()) { ring -> (0 until ring.size / 2).map { pack(ring[2 * it], ring[2 * it + 1]) } }
+    }
+
+    private fun simplifyRing(ring: LongArray, anchors: Set<Long>, tolerance: Double): LongArray {
+        val n = ring.size / 2
+
+        if (n <= 3)
+            return ring
+
+        val keys = LongArray(n) { pack(ring[2 * it], ring[2 * it + 1]) }
+
+        val isAnchor = BooleanArray(n) { i ->
+            val prev = (i + n - 1) % n
+            val next = (i + 1) % n
+
+            keys[i] in anchors || !isChainVertex(ring[2 * i], ring[2 * i + 1], keys[i], keys[prev], keys[next])
+        }
+
+        // a ring on a single ring of its own starts at its smallest vertex, regardless of direction
+        if (isAnchor.none { it }) {
+            isAnchor[(0 until n).minBy { keys[it] }!!] = true
+        }
+
+        val keep = isAnchor.copyOf()
+
+        val starts = (0 until n).filter { isAnchor[it] }
+
+        starts.forEachIndexed { a, start ->
+            val end = starts[(a + 1) % starts.size]
+
+            val length = if (end > start) end - start else end - start + n
+
+            var chain = IntArray(length + 1) { (start + it) % n }
+
+            // the same direction for both polygons that share the chain
+            val reverse = if (start != end) keys[start] > keys[end] else keys[chain[1]] > keys[chain[length - 1]]
+
+            if (reverse)
+                chain = chain.reversedArray()
+
+            simplifyChain(ring, keys, chain, tolerance, keep)
+        }
+
+        if (keep.count { it } < 3)
+            return ring
+
+        val result = LongArray(keep.count { it } * 2)
+
+        var j = 0
+        for (i in 0 until n) {
+            if (keep[i]) {
+                result[j++] = ring[2 * i]
+                result[j++] = ring[2 * i + 1]
+            }
+        }
+
+        return result
+    }
+
+    /**
+     * A chain vertex has the same neighbours as in one of the rings, and lies on no other ring segment.
+     */
+    private fun isChainVertex(x: Long, y: Long, key: Long, prev: Long, next: Long): Boolean {
+        val pairs = neighbours[key] ?: return false
+
+        var matched = false
+
+        for (i in 0 until pairs.size step 2) {
+            if (pairs[i] == prev && pairs[i + 1] == next || pairs[i] == next && pairs[i + 1] == prev) {
+                matched = true
+            }
+        }
+
+        if (!matched)
+            return false
+
+        var onOther = false
+
+        segments.search(x.toDouble(), y.toDouble(), x.toDouble(), y.toDouble()) { s ->
+            val from = pack(x0[s], y0[s])
+            val to = pack(x1[s], y1[s])
+
+            // the two segments of the vertex itself
+            val isOwn = from == key && (to == prev || to == next) || to == key && (from == prev || from == next)
+
+            if (!isOwn && orientation(x0[s], y0[s], x1[s], y1[s], x, y) == 0)
+                onOther = true
+        }
+
+        return !onOther
+    }
+
+    /**
+     * Marks vertices of [chain] to [keep], first and last are kept already.
+     */
+    private fun simplifyChain(ring: LongArray, keys: LongArray, chain: IntArray, tolerance: Double, keep: BooleanArray) {
+        val stack = ArrayDeque<Int>()
+        stack.push(0)
+        stack.push(chain.size - 1)
+
+        while (stack.isNotEmpty()) {
+            val j = stack.pop()
+            val i = stack.pop()
+
+            if (j - i < 2)
+                continue
+
+            val ax = ring[2 * chain[i]]
+            val ay = ring[2 * chain[i] + 1]
+            val bx = ring[2 * chain[j]]
+            val by = ring[2 * chain[j] + 1]
+
+            var farthest = i + 1
+            var maxDistance = -1.0
+
+            for (k in i + 1 until j) {
+                val d = distanceToSegment(ring[2 * chain[k]].toDouble(), ring[2 * chain[k] + 1].toDouble(),
+                        ax.toDouble(), ay.toDouble(), bx.toDouble(), by.toDouble())
+
+                if (d > maxDistance) {
+                    maxDistance = d
+                    farthest = k
+                }
+            }
+
+            if (maxDistance <= tolerance && !crossesOtherSegment(ax, ay, bx, by, (i..j).mapTo(hashSetOf()) { keys[chain[it]] }))
+                continue
+
+            keep[chain[farthest]] = true
+
+            stack.push(i)
+            stack.push(farthest)
+            stack.push(farthest)
+            stack.push(j)
+        }
+    }
+
+    /**
+     * Segments with an end in [replaced] are the ones that the shortcut replaces.
+     *
+     * @return true if the shortcut from a to b properly crosses any other ring segment
+     */
+    private fun crossesOtherSegment(ax: Long, ay: Long, bx: Long, by: Long, replaced: Set<Long>): Boolean {
+        var crosses = false
+
+        segments.search(Math.min(ax, bx).toDouble(), Math.min(ay, by).toDouble(), Math.max(ax, bx).toDouble(), Math.max(ay, by).toDouble()) { s ->
+            if (crosses || pack(x0[s], y0[s]) in replaced || pack(x1[s], y1[s]) in replaced)
+                return@search
+
+            val o1 = orientation(ax, ay, bx, by, x0[s], y0[s])
+            val o2 = orientation(ax, ay, bx, by, x1[s], y1[s])
+            val o3 = orientation(x0[s], y0[s], x1[s], y1[s], ax, ay)
+            val o4 = orientation(x0[s], y0[s], x1[s], y1[s], bx, by)
+
+            if (o1 * o2 < 0 && o3 * o4 < 0)
+                crosses = true
+        }
+
+        return crosses
+    }
+
+    /**
+     * Exact for grid coordinates, which fit into 32 bits.
+     */
+    private fun orientation(ax: Long, ay: Long, bx: Long, by: Long, cx: Long, cy: Long): Int {
+        return java.lang.Long.signum((bx - ax) * (cy - ay) - (by - ay) * (cx - ax))
+    }
+
+    private fun distanceToSegment(x: Double, y: Double, ax: Double, ay: Double, bx: Double, by: Double): Double {
+        val dx = bx - ax
+        val dy = by - ay
+        val lengthSq = dx * dx + dy * dy
+
+        val t = if (lengthSq == 0.0) 0.0 else Math.max(0.0, Math.min(1.0, ((x - ax) * dx + (y - ay) * dy) / lengthSq))
+
+        return Math.hypot(ax + t * dx - x, ay + t * dy - y)
+    }
+}
+
+/**
+ * Tolerance of [PolygonSimplifier], with the number of vertices of the polygons simplified with it.
+ * Shared by all diagrams drawn in one run, so the counts are for that run only.
+ * Thread-safe.
+ */
+class Simplification(
+
+        /**
+         * Max distance between a boundary and its simplified version, in diagram units.
+         * 0 turns simplification off.
+         */
+        val tolerance: Double = DEFAULT_TOLERANCE) {
+
+    companion object {
+        const val DEFAULT_TOLERANCE = 2.0
+    }
+
+    private val verticesBefore = AtomicLong()
+    private val verticesAfter = AtomicLong()
+
+    /**
+     * @return number of vertices of all polygons simplified so far
+     */
+    fun verticesBefore() = verticesBefore.get()
+
+    /**
+     * @return number of vertices of all polygons simplified so far, after simplification
+     */
+    fun verticesAfter() = verticesAfter.get()
+
+    internal fun count(before: FixedPolygon, after: FixedPolygon) {
+        verticesBefore.addAndGet(before.rings.sumBy { it.size / 2 }.toLong())
+        verticesAfter.addAndGet(after.rings.sumBy { it.size / 2 }.toLong())
+    }
+}
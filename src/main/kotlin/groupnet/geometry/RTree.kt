@@ -0,0 +1,185 @@
+package groupnet.geometry
+
+/**
+ * A static R-tree of axis-aligned boxes, bulk loaded with the sort-tile-recursive (STR) method.
+ * Items are referred to by their index in the arrays given on construction.
+ * Immutable once built, so it can be queried from several threads.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+class RTree(private val itemMinX: DoubleArray,
+            private val itemMinY: DoubleArray,
+            private val itemMaxX: DoubleArray,
+            private val itemMaxY: DoubleArray) {
+
+    private companion object {
+        const val NODE_SIZE = 8
+    }
+
+    val size = itemMinX.size
+
+    private var numNodes = 0
+
+    private var minX = DoubleArray(16)
+    private var minY = DoubleArray(16)
+    private var maxX = DoubleArray(16)
+    private var maxY = DoubleArray(16)
+
+    private var isLeaf = BooleanArray(16)
+
+    // children of a node are children[childStart until childStart + childCount],
+    // items for a leaf, otherwise nodes
+    private var childStart = IntArray(16)
+    private var childCount = IntArray(16)
+    private var children = IntArray(16)
+    private var numChildren = 0
+
+    private val root: Int
+
+    init {
+        if (itemMinY.size != size || itemMaxX.size != size || itemMaxY.size != size)
+            throw IllegalArgumentException("Box arrays have different sizes")
+
+        var level = pack((0 until size).toList(), itemMinX, itemMinY, itemMaxX, itemMaxY, leaf = true)
+
+        while (level.size > 1) {
+            level = pack(level, minX, minY, maxX, maxY, leaf = false)
+        }
+
+        root = level.firstOrNull() ?: -1
+    }
+
+    /**
+     * Groups [entries] into nodes of up to [NODE_SIZE], first into vertical slices by x, then by y within a slice.
+     *
+     * @return the new nodes
+     */
+    private fun pack(entries: List<Int>, boxMinX: DoubleArray, boxMinY: DoubleArray, boxMaxX: DoubleArray, boxMaxY: DoubleArray, leaf: Boolean): List<Int> {
+        val numGroups = Math.ceil(entries.size.toDouble() / NODE_SIZE).toInt()
+        val numSlices = Math.ceil(Math.sqrt(numGroups.toDouble())).toInt()
+        val sliceSize = numSlices * NODE_SIZE
+
+        val nodes = arrayListOf<Int>()
+
+        entries.sortedBy { boxMinX[it] + boxMaxX[it] }
+                .chunked(sliceSize)
+                .forEach { slice ->
+                    slice.sortedBy { boxMinY[it] + boxMaxY[it] }
+                            .chunked(NODE_SIZE)
+                            .forEach { group -> nodes.add(addNode(group, boxMinX, boxMinY, boxMaxX, boxMaxY, leaf)) }
+                }
+
+        return nodes
+    }
+
+    private fun addNode(group: List<Int>, boxMinX: DoubleArray, boxMinY: DoubleArray, boxMaxX: DoubleArray, boxMaxY: DoubleArray, leaf: Boolean): Int {
+        if (numNodes == minX.size) {
+            minX = minX.copyOf(numNodes * 2)
+            minY = minY.copyOf(numNodes * 2)
+            maxX = maxX.copyOf(numNodes * 2)
+            maxY = maxY.copyOf(numNodes * 2)
+            isLeaf = isLeaf.copyOf(numNodes * 2)
+            childStart = childStart.copyOf(numNodes * 2)
+            childCount = childCount.copyOf(numNodes * 2)
+        }
+
+        if (numChildren + group.size > children.size) {
+            children = children.copyOf(Math.max(children.size * 2, numChildren + group.size))
+        }
+
+        val node = numNodes++
+
+        // boxes of the previous level may be in the node arrays that just grew,
+        // they are read from the arrays passed in, which still hold them
+        minX[node] = group.map { boxMinX[it] }.min()!!
+        minY[node] = group.map { boxMinY[it] }.min()!!
+        maxX[node] = group.map { boxMaxX[it] }.max()!!
+        maxY[node] = group.map { boxMaxY[it] }.max()!!
+
+        isLeaf[node] = leaf
+        childStart[node] = numChildren
+        childCount[node] = group.size
+
+        group.forEach { children[numChildren++] = it }
+
+        return node
+    }
+
+    /**
+     * Calls [visitor] with each item whose box intersects the given box.
+     */
+    fun search(minX: Double, minY: Double, maxX: Double, maxY: Double, visitor: (Int) -> Unit) {
+        if (root < 0)
+            return
+
+        var stack = IntArray(16)
+        var top = 0
+
+        stack[top++] = root
+
+        while (top > 0) {
+            val node = stack[--top]
+
+            if (this.minX[node] > maxX || this.maxX[node] < minX || this.minY[node] > maxY || this.maxY[node] < minY)
+                continue
+
+            for (i in childStart[node] until childStart[node] + childCount[node]) {
+                val child = children[i]
+
+                if (isLeaf[node]) {
+                    if (itemMinX[child] <= maxX && itemMaxX[child] >= minX && itemMinY[child] <= maxY && itemMaxY[child] >= minY)
+                        visitor(child)
+                } else {
+                    if (top == stack.size)
+                        stack = stack.copyOf(top * 2)
+
+                    stack[top++] = child
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls [visitor] with items in order of increasing [distance] from point (x, y), while it returns true.
+     * [distance] of an item must be at least the distance from the point to its box.
+     */
+    fun nearest(x: Double, y: Double, distance: (Int) -> Double, visitor: (item: Int, distance: Double) -> Boolean) {
+        if (root < 0)
+            return
+
+        // nodes are stored as -(node + 1) to tell them from items
+        val queue = NodeHeap()
+        queue.add(-(root + 1), 0.0)
+
+        while (queue.isNotEmpty()) {
+            val d = queue.peekPriority()
+            val entry = queue.poll()
+
+            if (entry >= 0) {
+                if (!visitor(entry, d))
+                    return
+
+                continue
+            }
+
+            val node = -entry - 1
+
+            for (i in childStart[node] until childStart[node] + childCount[node]) {
+                val child = children[i]
+
+                if (isLeaf[node]) {
+                    queue.add(child, distance(child))
+                } else {
+                    queue.add(-(child + 1), boxDistance(x, y, minX[child], minY[child], maxX[child], maxY[child]))
+                }
+            }
+        }
+    }
+
+    private fun boxDistance(x: Double, y: Double, minX: Double, minY: Double, maxX: Double, maxY: Double): Double {
+        val dx = Math.max(Math.max(minX - x, x - maxX), 0.0)
+        val dy = Math.max(Math.max(minY - y, y - maxY), 0.0)
+
+        return Math.hypot(dx, dy)
+    }
+}
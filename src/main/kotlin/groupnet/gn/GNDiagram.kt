@@ -45,7 +45,7 @@ class GNDiagram(val GND: GNDescription,
             }
 
             // find the zone in new_d where v lives and position in that zone randomly
-            val zone = (Z(new_d) + new_d.outsideZone).find { it.az == new_GND.aloc(v.label) }!!
+            val zone = new_d.getZone(new_GND.aloc(v.label))
 
             v.pos = zone.visualCenter.add(Math.random(), Math.random())
         }
@@ -58,7 +58,7 @@ class GNDiagram(val GND: GNDescription,
         // since we just slotted gnd.d into az
         // so, reposition unique G1 nodes that are in zone of az
 
-        val zone = (Z(new_d) + new_d.outsideZone ).find { it.az == az }!!
+        val zone = new_d.getZone(az)
 
         V1.filter { new_GND.aloc(it.label) == az }.forEach { v ->
             v.pos = zone.visualCenter.add(Math.random(), Math.random())
@@ -96,13 +96,21 @@ class GNDiagram(val GND: GNDescription,
 
         val abstractMin = az1.symmetricDifference(az2).size
 
-        val actual = C(d).sumBy { c -> numCrosses(c, e) }
+        val p1 = e.v1.pos
+        val p2 = e.v2.pos
+
+        // only curves near the edge can cross it
+        val actual = d.spatialIndex.curvesIntersecting(Math.min(p1.x, p2.x), Math.min(p1.y, p2.y), Math.max(p1.x, p2.x), Math.max(p1.y, p2.y))
+                .sumBy { c -> numCrosses(c, e) }
 
         return actual - abstractMin
     }
 
     private fun numCrosses(c: Curve, e: NetworkEdge): Int {
-        return numIntersectionsLinePolygon(e.v1.pos, e.v2.pos, c.getPolygon())
+        if (!c.intersectsSegment(e.v1.pos, e.v2.pos))
+            return 0
+
+        return numIntersectionsLinePolygon(e.v1.pos, e.v2.pos, c.geometry.polygon)
     }
 
     private fun computeEdgeNodeCrossing(e: NetworkEdge): Int {
@@ -1,5 +1,6 @@
 package groupnet.network
 
+import groupnet.euler.SpatialIndex
 import groupnet.euler.Zone
 import groupnet.gui.SettingsController
 import groupnet.gui.SettingsController.*
@@ -65,16 +66,19 @@ class NetworkNode(val label: String,
 
     /**
      * Node is valid if it is within its zone boundaries.
+     * Points are located via [index] of the diagram that [z] belongs to, so only nearby curves are tested.
      */
-    fun hasValidPlacement(): Boolean {
-        return z!!.polygonShape.contains(pos.x, pos.y)
-                && z.polygonShape.contains(pos.x- NODE_SIZE * 1.5, pos.y)
-                && z.polygonShape.contains(pos.x+ NODE_SIZE * 1.5, pos.y)
-                && z.polygonShape.contains(pos.x, pos.y-NODE_SIZE * 1.5)
-                && z.polygonShape.contains(pos.x, pos.y+NODE_SIZE * 1.5)
-                && distancePolygonPoint(z.polygonShape, pos) > minDistToZone
+    fun hasValidPlacement(index: SpatialIndex): Boolean {
+        return isInZone(index, pos.x, pos.y)
+                && isInZone(index, pos.x - NODE_SIZE * 1.5, pos.y)
+                && isInZone(index, pos.x + NODE_SIZE * 1.5, pos.y)
+                && isInZone(index, pos.x, pos.y - NODE_SIZE * 1.5)
+                && isInZone(index, pos.x, pos.y + NODE_SIZE * 1.5)
+                && distancePolygonPoint(z!!.distanceIndex, pos) > minDistToZone
     }
 
+    private fun isInZone(index: SpatialIndex, x: Double, y: Double) = index.zoneAt(x, y)?.az == z!!.az
+
     fun isGNDBased() = z != null
 
     override fun toString() = label
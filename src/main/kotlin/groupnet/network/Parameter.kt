@@ -1,5 +1,8 @@
 package groupnet.network
 
+import groupnet.euler.SpatialIndex
+import groupnet.util.CancellationToken
+
 /**
  *
  * @author Almas Baimagambetov (almaslvl@gmail.com)
@@ -20,6 +23,16 @@ class Parameter {
     var coolingRate: Double = 0.0
     var frameDelay: Int = 0
 
+    /**
+     * Checked on every simulation step.
+     */
+    var token: CancellationToken = CancellationToken()
+
+    /**
+     * Index of the diagram that nodes are placed in, null if nodes are not bound to zones.
+     */
+    var spatialIndex: SpatialIndex? = null
+
     var attractiveForce: (Double, Double) -> Double = { d, k -> d * d / k }
     var repulsiveForce: (Double, Double) -> Double = { d, k -> k * k * k / (d) }
 }
\ No newline at end of file
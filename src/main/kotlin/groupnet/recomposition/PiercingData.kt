@@ -1,56 +1,47 @@
 package groupnet.recomposition
 
 import groupnet.diagram.EulerDiagramCreator
+import groupnet.euler.VertexIndex
 import groupnet.euler.Zone
 import javafx.geometry.Point2D
-import math.geom2d.polygon.MultiPolygon2D
 
 /**
  *
  *
  * @author Almas Baimagambetov (almaslvl@gmail.com)
  */
-class PiercingData(numZones: Int, private val cluster: List<Zone>, private val allZones: List<Zone>) {
+class PiercingData(numZones: Int,
+                   private val cluster: List<Zone>,
+                   private val allZones: List<Zone>,
+
+                   /**
+                    * Must include [cluster] and [allZones], normally the index of the diagram.
+                    */
+                   index: VertexIndex = VertexIndex(cluster + allZones)) {
 
     val center: Point2D?
     val radius: Double
 
     init {
+        // vertices present in all zones of the cluster, in the order they appear in the first zone
+        val sharedVertices = index.sharedVertices(cluster)
+
         if (numZones == 4) {
-            center = cluster.map { it.polygonShape.vertices() }
-                    .flatten()
-                    .groupBy { it.asInt }
-                    // we search for a vertex that is present in all 4 zones (sometimes we can have duplicates)
-                    .filter { it.value.size >= 4 }
-                    // ensure that each zone in cluster has such a vertex
-                    .filter { entry ->
-                        cluster.all { it.polygonShape.vertices().map { it.asInt }.any { it.x == entry.key.x && it.y == entry.key.y } }
-                    }
-                    .map { Point2D(it.key.getX(), it.key.getY()) }
+            center = sharedVertices
+                    .map { Point2D(it.getX(), it.getY()) }
                     // select the bottom circle, then top
                     .sortedByDescending { it.y }
                     .firstOrNull()
 
         } else { // if 2
 
-            val map = cluster.map { it.polygonShape.vertices() }
-                    .flatten()
-                    .groupBy({ it.asInt })
-                    // we search for vertices present along 2 zone bounds (collisions)
-                    .filter { it.value.size >= numZones }
-                    .filter { entry ->
-                        cluster.all { it.polygonShape.vertices().map { it.asInt }.any { it.x == entry.key.x && it.y == entry.key.y } }
-                    }
-                    .map { Point2D(it.key.getX(), it.key.getY()) }
+            val otherZones = allZones.minus(cluster).toSet()
+
+            val map = sharedVertices
                     // remove vertices that occur in other zone bounds
                     // to filter out the corner vertices
-                    .minus(
-                            allZones.minus(cluster)
-                                    .map { it.polygonShape.vertices() }
-                                    .flatten()
-                                    .groupBy { it.asInt }
-                                    .map { Point2D(it.key.getX(), it.key.getY()) }
-                    )
+                    .filter { index.zonesAt(it).none { it in otherZones } }
+                    .map { Point2D(it.getX(), it.getY()) }
                     .groupBy { computeRadius(it) }
                     .toSortedMap()
 
@@ -70,15 +61,18 @@ class PiercingData(numZones: Int, private val cluster: List<Zone>, private val a
         return allZones
                 .minus(cluster)
                 .map {
-                    if (it.polygonShape is MultiPolygon2D) {
+                    val index = it.distanceIndex
+
+                    if (index.isMultiPolygon) {
 
                         // check signed distance and also of the complement
-                        val dist1 = Math.abs(it.polygonShape.boundary().signedDistance(potentialCenter.x, potentialCenter.y))
-                        val dist2 = Math.abs(it.polygonShape.complement().boundary().signedDistance(potentialCenter.x, potentialCenter.y))
+                        val dist1 = Math.abs(index.signedDistance(potentialCenter.x, potentialCenter.y))
+                        val dist2 = Math.abs(index.complementSignedDistance(potentialCenter.x, potentialCenter.y))
 
                         Math.min(dist1, dist2)
                     } else {
-                        it.polygonShape.distance(potentialCenter.x, potentialCenter.y)
+                        // 0 if inside
+                        Math.max(index.signedDistance(potentialCenter.x, potentialCenter.y), 0.0)
                     }
                 }
                 .sorted()
@@ -7,6 +7,7 @@ import groupnet.euler.EulerDiagram
 import groupnet.gn.GNDescription
 import groupnet.gn.GNDiagram
 import groupnet.util.Bug
+import groupnet.util.CancellationToken
 import groupnet.util.Log
 
 /**
@@ -14,7 +15,7 @@ import groupnet.util.Log
  * @author Almas Baimagambetov (almaslvl@gmail.com)
  */
 
-abstract class VisTask<T> {
+abstract class VisTask<T>(protected val token: CancellationToken) {
 
     private var diagram: T? = null
 
@@ -22,6 +23,13 @@ abstract class VisTask<T> {
         diagram = generate()
     }
 
+    /**
+     * Abandons generation if it is still running.
+     */
+    fun cancel() {
+        token.cancel()
+    }
+
     fun render() {
         render(diagram ?: throw Bug("No diagram was generated"))
     }
@@ -30,12 +38,15 @@ abstract class VisTask<T> {
     protected abstract fun render(diagram: T)
 }
 
-class EulerDiagramVisTask(val description: Description, val renderer: Renderer) : VisTask<EulerDiagram>() {
+class EulerDiagramVisTask
+@JvmOverloads constructor(val description: Description,
+                          val renderer: Renderer,
+                          token: CancellationToken = CancellationToken()) : VisTask<EulerDiagram>(token) {
 
     override fun generate(): EulerDiagram {
         Log.i("Drawing: ", description.getInformalDescription())
 
-        return EulerDiagramCreator().drawEulerDiagram(description)
+        return EulerDiagramCreator(token).drawEulerDiagram(description)
     }
 
     override fun render(diagram: EulerDiagram) {
@@ -43,12 +54,15 @@ class EulerDiagramVisTask(val description: Description, val renderer: Renderer)
     }
 }
 
-class GNDiagramVisTask(val description: GNDescription, val renderer: Renderer) : VisTask<GNDiagram>() {
+class GNDiagramVisTask
+@JvmOverloads constructor(val description: GNDescription,
+                          val renderer: Renderer,
+                          token: CancellationToken = CancellationToken()) : VisTask<GNDiagram>(token) {
 
     override fun generate(): GNDiagram {
         Log.i("Drawing: ", description)
 
-        val gnd = GNDiagramCreator().drawGroupedNetworkDiagram(description)
+        val gnd = GNDiagramCreator(token).drawGroupedNetworkDiagram(description)
 
         return gnd
     }
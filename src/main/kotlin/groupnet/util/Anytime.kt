@@ -0,0 +1,77 @@
+package groupnet.util
+
+import java.util.*
+
+/**
+ * Fallbacks of the anytime mode, ordered from the mildest to the most severe loss of quality.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+enum class Degradation(
+
+        /**
+         * The fallback is taken once less than this fraction of the budget is left.
+         */
+        val budgetLeft: Double) {
+
+    /**
+     * Stop force-directed layout before it reaches equilibrium.
+     */
+    EARLY_LAYOUT_STOP(0.75),
+
+    /**
+     * Only consider the first MED cycles found, rather than all of them.
+     */
+    FIRST_FOUND_CYCLE(0.6),
+
+    /**
+     * Only keep MED edges that are valid as straight lines, without A* routing.
+     */
+    STRAIGHT_EDGES(0.45),
+
+    /**
+     * Use the raw MED cycle polygon instead of a smoothed path.
+     */
+    NO_SMOOTHING(0.3),
+
+    /**
+     * Draw a circle wherever piercing data allows, even if it splits extra zones.
+     */
+    CIRCLES_ONLY(0.15)
+}
+
+/**
+ * Token of the anytime mode.
+ * Running out of the budget does not abandon the work, instead generation
+ * takes progressively rougher fallbacks, so a usable diagram is still produced.
+ * Calling [cancel] still abandons the work.
+ */
+class AnytimeToken(budgetMillis: Long) : CancellationToken() {
+
+    private val startTime = System.nanoTime()
+    private val budget = budgetMillis * 1000000
+
+    private val taken = Collections.synchronizedSet(EnumSet.noneOf(Degradation::class.java))
+
+    override val allowsDegradation: Boolean
+        get() = true
+
+    override val degradations: Set<Degradation>
+        get() = synchronized(taken) { taken.toSet() }
+
+    /**
+     * @return fraction of the budget that is left, in [0..1]
+     */
+    fun budgetLeft(): Double {
+        if (budget <= 0)
+            return 0.0
+
+        return Math.max(0.0, 1.0 - (System.nanoTime() - startTime).toDouble() / budget)
+    }
+
+    override fun shouldDegrade(degradation: Degradation) = budgetLeft() < degradation.budgetLeft
+
+    override fun degraded(degradation: Degradation) {
+        taken += degradation
+    }
+}
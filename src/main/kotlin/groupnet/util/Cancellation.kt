@@ -0,0 +1,96 @@
+package groupnet.util
+
+/**
+ * Cooperative cancellation of generation work.
+ * Long running loops call [checkpoint] at their boundaries,
+ * so that once the token is cancelled or its deadline has passed,
+ * the work is abandoned promptly by throwing [CancelledException].
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+open class CancellationToken
+@JvmOverloads constructor(
+        /**
+         * Deadline as given by [System.nanoTime], or [NO_DEADLINE].
+         */
+        val deadline: Long = NO_DEADLINE) {
+
+    companion object {
+        const val NO_DEADLINE = Long.MAX_VALUE
+
+        /**
+         * @return a token whose deadline is [millis] from now
+         */
+        @JvmStatic fun withTimeout(millis: Long) = CancellationToken(System.nanoTime() + millis * 1000000)
+    }
+
+    @Volatile private var cancelled = false
+
+    fun cancel() {
+        cancelled = true
+    }
+
+    fun isCancelled() = cancelled || isExpired()
+
+    fun hasDeadline() = deadline != NO_DEADLINE
+
+    /**
+     * @return nanos left until the deadline, or [Long.MAX_VALUE] if there is no deadline
+     */
+    fun remainingNanos(): Long {
+        if (!hasDeadline())
+            return Long.MAX_VALUE
+
+        return Math.max(0, deadline - System.nanoTime())
+    }
+
+    /**
+     * @throws CancelledException if this token was cancelled or the deadline has passed
+     */
+    fun checkpoint() {
+        if (cancelled)
+            throw CancelledException("Generation was cancelled")
+
+        if (isExpired())
+            throw CancelledException("Generation exceeded its time budget")
+    }
+
+    /**
+     * True if fallbacks can be taken, so that a step that fails can fall back rather than fail generation.
+     */
+    open val allowsDegradation: Boolean
+        get() = false
+
+    /**
+     * Fallbacks of the anytime mode that were taken, empty for a plain token.
+     */
+    open val degradations: Set<Degradation>
+        get() = emptySet()
+
+    /**
+     * @return true if the anytime fallback [degradation] should be taken now
+     */
+    open fun shouldDegrade(degradation: Degradation) = false
+
+    /**
+     * Records that [degradation] was taken.
+     */
+    open fun degraded(degradation: Degradation) { }
+
+    /**
+     * Takes [degradation] if it should be taken now.
+     *
+     * @return true if it was taken
+     */
+    fun degrade(degradation: Degradation): Boolean {
+        if (!shouldDegrade(degradation))
+            return false
+
+        degraded(degradation)
+        return true
+    }
+
+    private fun isExpired() = hasDeadline() && System.nanoTime() - deadline > 0
+}
+
+class CancelledException(message: String) : RuntimeException(message)
@@ -0,0 +1,114 @@
+package groupnet.util
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Supplier
+
+/**
+ * Executor for drawing independent parts of a diagram.
+ * On a single core machine the parts are drawn in the calling thread,
+ * as the common pool would otherwise start a new thread for each part.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+val drawingExecutor: Executor =
+        if (ForkJoinPool.getCommonPoolParallelism() > 1)
+            ForkJoinPool.commonPool()
+        else
+            Executor { it.run() }
+
+/**
+ * Whose [Settings.isParallel] decides if drawing uses [drawingExecutor].
+ * Single threaded by default, same as the settings dialog.
+ */
+@Volatile var drawingSettings = Settings()
+
+/**
+ * Runs in the calling thread, so that a computation started by [async] completes before it returns.
+ */
+private val callingThread = Executor { it.run() }
+
+/**
+ * Runs [supplier] in [drawingExecutor], or in the calling thread if [drawingSettings] are not parallel.
+ */
+fun <T> async(supplier: () -> T): CompletableFuture<T> {
+    val executor = if (drawingSettings.isParallel()) drawingExecutor else callingThread
+
+    return CompletableFuture.supplyAsync(Supplier(supplier), executor)
+}
+
+/**
+ * Enough tasks per batch to keep all cores busy when the tests take uneven time.
+ */
+private val BATCH_SIZE = ForkJoinPool.getCommonPoolParallelism() * 4
+
+/**
+ * Same result as [List.find], but elements are tested speculatively in parallel batches,
+ * unless [drawingSettings] are not parallel.
+ * Once an element is accepted, tests of later elements that have not started yet are cancelled.
+ * [predicate] must not depend on the order in which elements are tested.
+ */
+fun <T> List<T>.parallelFind(predicate: (T) -> Boolean): T? {
+    if (!drawingSettings.isParallel())
+        return find(predicate)
+
+    // index of the first element accepted so far
+    val accepted = AtomicInteger(Int.MAX_VALUE)
+
+    for (from in indices step BATCH_SIZE) {
+        val batch = (from until Math.min(from + BATCH_SIZE, size)).map { index ->
+            async {
+                if (index > accepted.get()) {
+                    false
+                } else {
+                    val isAccepted = predicate(this[index])
+
+                    if (isAccepted)
+                        accepted.accumulateAndGet(index, Math::min)
+
+                    isAccepted
+                }
+            }
+        }
+
+        batch.forEachIndexed { i, future ->
+            if (future.await()) {
+                batch.drop(i + 1).forEach { it.cancel(false) }
+
+                return this[from + i]
+            }
+        }
+    }
+
+    return null
+}
+
+/**
+ * Waits for the result, rethrowing the original exception of the computation
+ * (e.g. [Bug] or [CancelledException]) rather than a wrapped one.
+ *
+ * @author Almas Baimagambetov (almaslvl@gmail.com)
+ */
+fun <T> CompletableFuture<T>.await(): T {
+    try {
+        return join()
+    } catch (e: CompletionException) {
+        throw unwrap(e)
+    } catch (e: ExecutionException) {
+        throw unwrap(e)
+    }
+}
+
+private fun unwrap(e: Exception): Throwable {
+    var cause: Throwable = e
+
+    while ((cause is CompletionException || cause is ExecutionException) && cause.cause != null) {
+        cause = cause.cause!!
+    }
+
+    return cause
+}
@@ -9,7 +9,8 @@ import java.util.*
  */
 object Profiler {
 
-    private val map = LinkedHashMap<String, Long>()
+    // components are drawn in parallel
+    private val map = Collections.synchronizedMap(LinkedHashMap<String, Long>())
 
     fun reset() {
         map.clear()
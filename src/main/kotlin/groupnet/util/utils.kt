@@ -1,5 +1,6 @@
 package groupnet.util
 
+import groupnet.algorithm.PolygonDistanceIndex
 import groupnet.euler.Zone
 import javafx.geometry.Point2D
 import javafx.geometry.Rectangle2D
@@ -20,7 +21,8 @@ open class Settings(
         private val threading: Boolean = false,
         private val smooth: Int = 10,
         private val MED: Boolean = false,
-        private val cache: Boolean = false) {
+        private val cache: Boolean = false,
+        private val budget: Long = 0) {
 
     /**
      * Use multithreading.
@@ -44,6 +46,13 @@ open class Settings(
      * use them.
      */
     open fun useLibrary(): Boolean = cache
+
+    /**
+     * Time budget in millis of the anytime mode.
+     * When it runs out, a rougher diagram is drawn instead.
+     * Value of 0 will disable the anytime mode.
+     */
+    open fun anytimeBudget(): Long = budget
 }
 
 fun Point2D.negate(): Point2D {
@@ -59,7 +68,7 @@ fun Rectangle2D.distToCorner(): Double {
 }
 
 fun bbox(zones: Collection<Zone>): Rectangle2D {
-    val bounds = zones.map { it.polygonShape.boundingBox() }
+    val bounds = zones.map { it.bbox }
 
     val minX = bounds.map { it.minX }.min()!!
     val minY = bounds.map { it.minY }.min()!!
@@ -86,16 +95,16 @@ fun <T> Set<T>.symmetricDifference(other: Set<T>): Set<T> {
     return (this - other) + (other - this)
 }
 
-fun distancePolygonPoint(polygon: Polygon2D, p: Point2D): Double {
-    if (polygon is MultiPolygon2D) {
+fun distancePolygonPoint(polygon: PolygonDistanceIndex, p: Point2D): Double {
+    if (polygon.isMultiPolygon) {
 
         // check signed distance and also of the complement
-        val dist1 = Math.abs(polygon.boundary().signedDistance(p.x, p.y))
-        val dist2 = Math.abs(polygon.complement().boundary().signedDistance(p.x, p.y))
+        val dist1 = Math.abs(polygon.signedDistance(p.x, p.y))
+        val dist2 = Math.abs(polygon.complementSignedDistance(p.x, p.y))
 
         return abs(Math.min(dist1, dist2))
     } else {
-        return abs(polygon.boundary().signedDistance(p.x, p.y))
+        return abs(polygon.signedDistance(p.x, p.y))
     }
 }
 
@@ -194,6 +203,33 @@ fun ccw(A: Point2D, B: Point2D, C: Point2D): Boolean {
     return (C.y-A.y) * (B.x-A.x) > (B.y-A.y) * (C.x-A.x)
 }
 
+/**
+ * Same as [lineIntersectsLine] without allocating points.
+ */
+fun segmentIntersectsSegment(ax: Double, ay: Double, bx: Double, by: Double,
+                             cx: Double, cy: Double, dx: Double, dy: Double): Boolean {
+    return ccw(ax, ay, cx, cy, dx, dy) != ccw(bx, by, cx, cy, dx, dy) && ccw(ax, ay, bx, by, cx, cy) != ccw(ax, ay, bx, by, dx, dy)
+}
+
+private fun ccw(ax: Double, ay: Double, bx: Double, by: Double, cx: Double, cy: Double): Boolean {
+    return (cy-ay) * (bx-ax) > (by-ay) * (cx-ax)
+}
+
+/**
+ * @return shortest distance from [p] to the segment from [start] to [end]
+ */
+fun distanceSegmentPoint(start: Point2D, end: Point2D, p: Point2D): Double {
+    val d = end.subtract(start)
+    val lengthSquared = d.dotProduct(d)
+
+    if (lengthSquared == 0.0)
+        return p.distance(start)
+
+    val t = Math.max(0.0, Math.min(1.0, p.subtract(start).dotProduct(d) / lengthSquared))
+
+    return p.distance(start.add(d.multiply(t)))
+}
+
 fun numIntersectionsLinePolygon(A: Point2D, B: Point2D, p: Polygon2D): Int {
     return p.edges().map { Point2D(it.firstPoint().x(), it.firstPoint().y()) to Point2D(it.lastPoint().x(), it.lastPoint().y()) }
             .filter { lineIntersectsLine(A, B, it.first, it.second) }